@@ -0,0 +1,7744 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Online Banking System
+ * A comprehensive banking application with user and admin functionality
+ */
+public class OnlineBankingSystem {
+    private static Scanner scanner = new Scanner(System.in);
+    private static UserManager userManager = new UserManager();
+    private static AccountManager accountManager = new AccountManager();
+    // Accounts are seeded afresh on every start, so each run archives into a
+    // directory of its own and never reopens segments of another run's accounts
+    private static final Path SEGMENT_DIRECTORY = Paths.get("segments", "run-" + System.currentTimeMillis());
+    private static TransactionManager transactionManager = new TransactionManager();
+    private static ReconciliationJob reconciliationJob = new ReconciliationJob(accountManager, transactionManager);
+    private static ChangeFeed changeFeed = new ChangeFeed(1 << 16);
+    private static StatementJob statementJob = new StatementJob(accountManager, transactionManager);
+    private static TieringJob tieringJob = new TieringJob(transactionManager, SEGMENT_DIRECTORY, TimeUnit.DAYS.toMillis(90));
+    private static HoldManager holdManager = new HoldManager(accountManager, transactionManager);
+    private static User currentUser = null;
+    private static final DecimalFormat MONEY_FORMAT = new DecimalFormat("$#,##0.00");
+    private static final Map<String, DecimalFormat> CURRENCY_FORMATS = new HashMap<>();
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final int USER_PAGE_SIZE = 20;
+    private static final String LOGIN_SOURCE = "console";
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--benchmark")) {
+            Benchmarks.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--workload")) {
+            WorkloadHarness.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        userManager.setChangeFeed(changeFeed);
+        accountManager.setChangeFeed(changeFeed);
+
+        // Initialize sample data
+        initializeSampleData();
+        reconciliationJob.scheduleNightly(2);
+        statementJob.scheduleMonthly(Paths.get("."));
+        tieringJob.scheduleHourly();
+        holdManager.startSettlement(TimeUnit.SECONDS.toMillis(5), 1000);
+        Metrics.registerMBean();
+        accountManager.getFxRates().watch(Paths.get("fx-rates.csv"), 60);
+
+        boolean running = true;
+        while (running) {
+            if (currentUser == null) {
+                displayLoginMenu();
+            } else if (currentUser.getRole() == UserRole.ADMIN) {
+                displayAdminMenu();
+            } else {
+                displayCustomerMenu();
+            }
+        }
+    }
+
+    private static void initializeSampleData() {
+        // Create admin user
+        User admin = new User("admin", "admin123", "Admin", "User", "admin@example.com", UserRole.ADMIN);
+        userManager.addUser(admin);
+
+        // Create regular users
+        User user1 = new User("user1", "password", "John", "Doe", "john@example.com", UserRole.CUSTOMER);
+        User user2 = new User("user2", "password", "Jane", "Smith", "jane@example.com", UserRole.CUSTOMER);
+        userManager.addUser(user1);
+        userManager.addUser(user2);
+
+        // Create accounts
+        Account checking1 = new Account("CHK-001", "Checking Account", user1.getUsername(), 2500.0);
+        Account savings1 = new Account("SAV-001", "Savings Account", user1.getUsername(), 10000.0);
+        Account checking2 = new Account("CHK-002", "Checking Account", user2.getUsername(), 3500.0);
+        Account savings2 = new Account("SAV-002", "Savings Account", user2.getUsername(), 15000.0);
+        
+        accountManager.addAccount(checking1);
+        accountManager.addAccount(savings1);
+        accountManager.addAccount(checking2);
+        accountManager.addAccount(savings2);
+        for (Account account : accountManager.getAllAccounts()) {
+            transactionManager.openLedgerAccount(account.getAccountNumber(), account.getBalance());
+        }
+
+        // Create some sample transactions
+        transactionManager.addTransaction(new Transaction("TRX-001", "CHK-001", "SAV-001", 500.0, "Transfer to savings", new Date()));
+        transactionManager.addTransaction(new Transaction("TRX-002", "CHK-002", "SAV-002", 1000.0, "Transfer to savings", new Date()));
+        transactionManager.addTransaction(new Transaction("TRX-003", "CHK-001", "CHK-002", 250.0, "Payment for dinner", new Date()));
+        
+        // Add some older transactions
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_MONTH, -5);
+        transactionManager.addTransaction(new Transaction("TRX-004", "SAV-001", "CHK-001", 300.0, "Transfer to checking", cal.getTime()));
+        
+        cal.add(Calendar.DAY_OF_MONTH, -10);
+        transactionManager.addTransaction(new Transaction("TRX-005", "CHK-002", "CHK-001", 125.0, "Split bill payment", cal.getTime()));
+    }
+
+    // ==================== MENU METHODS ====================
+
+    private static void displayLoginMenu() {
+        System.out.println("\n===== SECURE BANK SYSTEM =====");
+        System.out.println("1. Login");
+        System.out.println("2. Register");
+        System.out.println("3. Exit");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        switch (choice) {
+            case 1:
+                login();
+                break;
+            case 2:
+                register();
+                break;
+            case 3:
+                System.out.println("Thank you for using Secure Bank. Goodbye!");
+                System.exit(0);
+                break;
+            default:
+                System.out.println("Invalid option. Please try again.");
+        }
+    }
+
+    private static void displayCustomerMenu() {
+        System.out.println("\n===== CUSTOMER DASHBOARD =====");
+        System.out.println("Welcome, " + currentUser.getFirstName() + " " + currentUser.getLastName() + "!");
+        System.out.println("1. View Accounts");
+        System.out.println("2. View Transaction History");
+        System.out.println("3. Transfer Funds");
+        System.out.println("4. Update Profile");
+        System.out.println("5. Monthly Statement");
+        System.out.println("6. Logout");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        switch (choice) {
+            case 1:
+                viewAccounts();
+                break;
+            case 2:
+                viewTransactionHistory();
+                break;
+            case 3:
+                transferFunds();
+                break;
+            case 4:
+                updateProfile();
+                break;
+            case 5:
+                viewMonthlyStatement();
+                break;
+            case 6:
+                logout();
+                break;
+            default:
+                System.out.println("Invalid option. Please try again.");
+        }
+    }
+
+    private static void displayAdminMenu() {
+        System.out.println("\n===== ADMIN DASHBOARD =====");
+        System.out.println("Welcome, Administrator!");
+        System.out.println("1. View All Users");
+        System.out.println("2. View All Accounts");
+        System.out.println("3. View All Transactions");
+        System.out.println("4. Create New Account");
+        System.out.println("5. System Statistics");
+        System.out.println("6. Import / Export Data");
+        System.out.println("7. Balance As Of Date");
+        System.out.println("8. Ledger Reconciliation");
+        System.out.println("9. FX Rates");
+        System.out.println("10. Metrics");
+        System.out.println("11. Monthly Statements");
+        System.out.println("12. Account Holds");
+        System.out.println("13. Logout");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        switch (choice) {
+            case 1:
+                viewAllUsers();
+                break;
+            case 2:
+                viewAllAccounts();
+                break;
+            case 3:
+                viewAllTransactions();
+                break;
+            case 4:
+                createNewAccount();
+                break;
+            case 5:
+                showSystemStatistics();
+                break;
+            case 6:
+                importExportData();
+                break;
+            case 7:
+                viewBalanceAsOf();
+                break;
+            case 8:
+                reconcileLedger();
+                break;
+            case 9:
+                manageFxRates();
+                break;
+            case 10:
+                viewMetrics();
+                break;
+            case 11:
+                generateStatements();
+                break;
+            case 12:
+                manageHolds();
+                break;
+            case 13:
+                logout();
+                break;
+            default:
+                System.out.println("Invalid option. Please try again.");
+        }
+    }
+
+    // ==================== AUTHENTICATION METHODS ====================
+
+    private static void login() {
+        System.out.println("\n===== LOGIN =====");
+        System.out.print("Username: ");
+        String username = scanner.nextLine();
+        System.out.print("Password: ");
+        String password = scanner.nextLine();
+        
+        User user = userManager.authenticateUser(username, password, LOGIN_SOURCE);
+        if (user != null) {
+            currentUser = user;
+            System.out.println("Login successful!");
+            return;
+        }
+        long retryAfter = userManager.getLoginThrottle().retryAfterMillis(username, LOGIN_SOURCE, System.currentTimeMillis());
+        if (retryAfter >= LoginThrottle.LOCKED) {
+            System.out.println("Too many failed attempts. This login is locked, please try again later.");
+        } else if (retryAfter > 0) {
+            long seconds = (retryAfter + 999) / 1000;
+            System.out.println("Too many failed attempts. Please wait " + seconds + (seconds == 1 ? " second" : " seconds") + " before trying again.");
+        } else {
+            System.out.println("Invalid username or password. Please try again.");
+        }
+    }
+
+    private static void register() {
+        System.out.println("\n===== REGISTER =====");
+        System.out.print("First Name: ");
+        String firstName = scanner.nextLine();
+        System.out.print("Last Name: ");
+        String lastName = scanner.nextLine();
+        System.out.print("Email: ");
+        String email = scanner.nextLine();
+        
+        String username;
+        boolean usernameExists;
+        do {
+            System.out.print("Username: ");
+            username = scanner.nextLine();
+            usernameExists = userManager.getUserByUsername(username) != null;
+            if (usernameExists) {
+                System.out.println("Username already exists. Please choose another one.");
+            }
+        } while (usernameExists);
+        
+        System.out.print("Password: ");
+        String password = scanner.nextLine();
+        
+        User newUser = new User(username, password, firstName, lastName, email, UserRole.CUSTOMER);
+        userManager.addUser(newUser);
+        
+        System.out.println("Registration successful! You can now login.");
+    }
+
+    private static void logout() {
+        currentUser = null;
+        System.out.println("You have been logged out successfully.");
+    }
+
+    // ==================== CUSTOMER METHODS ====================
+
+    private static void viewAccounts() {
+        System.out.println("\n===== YOUR ACCOUNTS =====");
+        List<Account> userAccounts = accountManager.getAccountsByUsername(currentUser.getUsername());
+        
+        if (userAccounts.isEmpty()) {
+            System.out.println("You don't have any accounts yet.");
+            return;
+        }
+        
+        FxRateTable fxRates = accountManager.getFxRates();
+        double[] balances = accountManager.getBalances(userAccounts);
+        double totalBalance = 0;
+        for (int i = 0; i < userAccounts.size(); i++) {
+            Account account = userAccounts.get(i);
+            System.out.println("Account Number: " + account.getAccountNumber());
+            System.out.println("Account Type: " + account.getAccountName());
+            System.out.println("Balance: " + formatMoney(balances[i], account.getCurrency()));
+            double held = account.getHeldAmount();
+            if (held > 0) {
+                System.out.println("On Hold: " + formatMoney(held, account.getCurrency()));
+                System.out.println("Available: " + formatMoney(balances[i] - held, account.getCurrency()));
+            }
+            System.out.println("-----------------------------");
+            totalBalance += fxRates.toBase(balances[i], account.getCurrency());
+        }
+        
+        System.out.println("Total Balance: " + formatMoney(totalBalance, FxRateTable.BASE_CURRENCY));
+    }
+
+    private static void viewTransactionHistory() {
+        System.out.println("\n===== TRANSACTION HISTORY =====");
+        List<Account> userAccounts = accountManager.getAccountsByUsername(currentUser.getUsername());
+        
+        if (userAccounts.isEmpty()) {
+            System.out.println("You don't have any accounts to view transactions for.");
+            return;
+        }
+        
+        System.out.println("Select an account to view transactions:");
+        for (int i = 0; i < userAccounts.size(); i++) {
+            System.out.println((i + 1) + ". " + userAccounts.get(i).getAccountName() + " (" + userAccounts.get(i).getAccountNumber() + ")");
+        }
+        System.out.print("Enter your choice (or 0 to view all): ");
+        
+        int choice = getIntInput();
+        List<Posting> postings;
+        
+        if (choice == 0) {
+            // View postings for all user accounts
+            postings = new ArrayList<>();
+            for (Account account : userAccounts) {
+                postings.addAll(transactionManager.getPostings(account.getAccountNumber()));
+            }
+        } else if (choice >= 1 && choice <= userAccounts.size()) {
+            // View postings for a specific account
+            Account selectedAccount = userAccounts.get(choice - 1);
+            postings = transactionManager.getPostings(selectedAccount.getAccountNumber());
+        } else {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        
+        if (postings.isEmpty()) {
+            System.out.println("No transactions found.");
+            return;
+        }
+        
+        // Sort postings by date (newest first)
+        postings.sort((p1, p2) -> p2.getDate().compareTo(p1.getDate()));
+        
+        System.out.println("\nTransaction History:");
+        System.out.println("------------------------------------------------------------------------------");
+        System.out.printf("%-12s %-10s %-10s %-20s %-12s %-15s\n", "Date", "Account", "Type", "Description", "Amount", "Balance");
+        System.out.println("------------------------------------------------------------------------------");
+        
+        for (Posting posting : postings) {
+            String type;
+            
+            if (isUserAccount(posting.getCounterpartyAccount())) {
+                // Internal transfer
+                type = "Transfer";
+            } else if (posting.isDebit()) {
+                // Money going out
+                type = "Debit";
+            } else {
+                // Money coming in
+                type = "Credit";
+            }
+            String currency = accountCurrency(posting.getAccountNumber());
+            String amount = (posting.isDebit() ? "-" : "+") + formatMoney(Math.abs(posting.getAmount()), currency);
+            
+            System.out.printf("%-12s %-10s %-10s %-20s %-12s %-15s\n", 
+                    new SimpleDateFormat("yyyy-MM-dd").format(posting.getDate()),
+                    posting.getAccountNumber(),
+                    type,
+                    posting.getTransaction().getDescription(),
+                    amount,
+                    formatMoney(posting.getBalanceAfter(), currency));
+        }
+        System.out.println("------------------------------------------------------------------------------");
+    }
+
+    private static boolean isUserAccount(String accountNumber) {
+        List<Account> userAccounts = accountManager.getAccountsByUsername(currentUser.getUsername());
+        for (Account account : userAccounts) {
+            if (account.getAccountNumber().equals(accountNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void transferFunds() {
+        System.out.println("\n===== TRANSFER FUNDS =====");
+        List<Account> userAccounts = accountManager.getAccountsByUsername(currentUser.getUsername());
+        
+        if (userAccounts.size() < 1) {
+            System.out.println("You need at least one account to make transfers.");
+            return;
+        }
+        
+        // Select source account
+        System.out.println("Select source account:");
+        for (int i = 0; i < userAccounts.size(); i++) {
+            Account account = userAccounts.get(i);
+            System.out.println((i + 1) + ". " + account.getAccountName() + " (" + account.getAccountNumber() + ") - Available: " + formatMoney(account.getAvailableBalance(), account.getCurrency()));
+        }
+        System.out.print("Enter your choice: ");
+        int sourceChoice = getIntInput();
+        
+        if (sourceChoice < 1 || sourceChoice > userAccounts.size()) {
+            System.out.println("Invalid account selection.");
+            return;
+        }
+        
+        Account sourceAccount = userAccounts.get(sourceChoice - 1);
+        
+        // Select destination account or enter external account
+        System.out.println("\nSelect destination:");
+        System.out.println("1. Transfer to my account");
+        System.out.println("2. Transfer to another account");
+        System.out.print("Enter your choice: ");
+        int transferType = getIntInput();
+        
+        String destinationAccountNumber;
+        
+        if (transferType == 1) {
+            // Transfer to own account
+            if (userAccounts.size() < 2) {
+                System.out.println("You need at least two accounts to make an internal transfer.");
+                return;
+            }
+            
+            System.out.println("Select destination account:");
+            for (int i = 0; i < userAccounts.size(); i++) {
+                Account account = userAccounts.get(i);
+                if (!account.getAccountNumber().equals(sourceAccount.getAccountNumber())) {
+                    System.out.println((i + 1) + ". " + account.getAccountName() + " (" + account.getAccountNumber() + ")");
+                }
+            }
+            System.out.print("Enter your choice: ");
+            int destChoice = getIntInput();
+            
+            if (destChoice < 1 || destChoice > userAccounts.size() || userAccounts.get(destChoice - 1).getAccountNumber().equals(sourceAccount.getAccountNumber())) {
+                System.out.println("Invalid account selection.");
+                return;
+            }
+            
+            destinationAccountNumber = userAccounts.get(destChoice - 1).getAccountNumber();
+        } else if (transferType == 2) {
+            // Transfer to external account
+            System.out.print("Enter destination account number: ");
+            destinationAccountNumber = scanner.nextLine();
+            
+            Account destinationAccount = accountManager.getAccountByNumber(destinationAccountNumber);
+            if (destinationAccount == null) {
+                System.out.println("Destination account not found.");
+                return;
+            }
+        } else {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        
+        // Enter amount and description
+        System.out.print("Enter amount to transfer (" + sourceAccount.getCurrency() + "): ");
+        double amount = getDoubleInput();
+        
+        if (amount <= 0) {
+            System.out.println("Amount must be greater than zero.");
+            return;
+        }
+        
+        if (amount > sourceAccount.getAvailableBalance()) {
+            System.out.println("Insufficient available funds in source account.");
+            return;
+        }
+        
+        System.out.print("Enter description (optional): ");
+        String description = scanner.nextLine();
+        if (description.isEmpty()) {
+            description = "Fund Transfer";
+        }
+        
+        // Card payments are authorized and captured now, and settle with the next batch
+        if (sourceAccount.getAccountName().equals("Credit Card")) {
+            Hold hold = holdManager.authorize(sourceAccount.getAccountNumber(), destinationAccountNumber, amount, description,
+                    HoldManager.DEFAULT_HOLD_MILLIS);
+            if (hold == null || !holdManager.capture(hold.getId(), amount)) {
+                System.out.println("Card payment declined.");
+                return;
+            }
+            System.out.println("Card payment authorized. It will be posted shortly as HLD-" + hold.getId() + ".");
+            System.out.println("Available Balance: " + formatMoney(sourceAccount.getAvailableBalance(), sourceAccount.getCurrency()));
+            return;
+        }
+        
+        // Perform the transfer
+        double creditedAmount = accountManager.transfer(sourceAccount.getAccountNumber(), destinationAccountNumber, amount);
+        
+        if (creditedAmount >= 0) {
+            // Create transaction record
+            String transactionId = "TRX-" + String.format("%03d", transactionManager.getTransactionCount() + 1);
+            Transaction transaction = new Transaction(transactionId, sourceAccount.getAccountNumber(), destinationAccountNumber,
+                    amount, sourceAccount.getCurrency(), creditedAmount, description, new Date());
+            transactionManager.addTransaction(transaction);
+            
+            String destinationCurrency = accountCurrency(destinationAccountNumber);
+            System.out.println("Transfer completed successfully!");
+            System.out.println("Transaction ID: " + transactionId);
+            System.out.println("Amount: " + formatMoney(amount, sourceAccount.getCurrency()));
+            if (!destinationCurrency.equals(sourceAccount.getCurrency())) {
+                System.out.println("Converted Amount: " + formatMoney(creditedAmount, destinationCurrency));
+            }
+            System.out.println("New Balance: " + formatMoney(sourceAccount.getBalance(), sourceAccount.getCurrency()));
+        } else {
+            System.out.println("Transfer failed. Please try again.");
+        }
+    }
+
+    private static void updateProfile() {
+        System.out.println("\n===== UPDATE PROFILE =====");
+        System.out.println("1. Update Name");
+        System.out.println("2. Update Email");
+        System.out.println("3. Change Password");
+        System.out.println("4. Back to Main Menu");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        switch (choice) {
+            case 1:
+                System.out.print("Enter new first name: ");
+                String firstName = scanner.nextLine();
+                System.out.print("Enter new last name: ");
+                String lastName = scanner.nextLine();
+                userManager.updateName(currentUser, firstName, lastName);
+                System.out.println("Name updated successfully!");
+                break;
+            case 2:
+                System.out.print("Enter new email: ");
+                String email = scanner.nextLine();
+                userManager.updateEmail(currentUser, email);
+                System.out.println("Email updated successfully!");
+                break;
+            case 3:
+                System.out.print("Enter current password: ");
+                String currentPassword = scanner.nextLine();
+                if (!currentUser.getPassword().equals(currentPassword)) {
+                    System.out.println("Incorrect password.");
+                    return;
+                }
+                System.out.print("Enter new password: ");
+                String newPassword = scanner.nextLine();
+                System.out.print("Confirm new password: ");
+                String confirmPassword = scanner.nextLine();
+                if (!newPassword.equals(confirmPassword)) {
+                    System.out.println("Passwords do not match.");
+                    return;
+                }
+                currentUser.setPassword(newPassword);
+                System.out.println("Password changed successfully!");
+                break;
+            case 4:
+                return;
+            default:
+                System.out.println("Invalid option. Please try again.");
+        }
+    }
+
+    private static void viewMonthlyStatement() {
+        System.out.println("\n===== MONTHLY STATEMENT =====");
+        List<Account> userAccounts = accountManager.getAccountsByUsername(currentUser.getUsername());
+        
+        if (userAccounts.isEmpty()) {
+            System.out.println("You don't have any accounts yet.");
+            return;
+        }
+        
+        System.out.println("Select an account:");
+        for (int i = 0; i < userAccounts.size(); i++) {
+            System.out.println((i + 1) + ". " + userAccounts.get(i).getAccountName() + " (" + userAccounts.get(i).getAccountNumber() + ")");
+        }
+        System.out.print("Enter your choice: ");
+        int choice = getIntInput();
+        if (choice < 1 || choice > userAccounts.size()) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        Account account = userAccounts.get(choice - 1);
+        
+        int currentMonth = MonthlyStatement.monthOf(System.currentTimeMillis());
+        System.out.print("Month (yyyy-MM, blank for " + MonthlyStatement.format(currentMonth) + "): ");
+        String monthStr = scanner.nextLine().trim();
+        int month = monthStr.isEmpty() ? currentMonth : MonthlyStatement.parse(monthStr);
+        if (month < 0) {
+            System.out.println("Invalid month. Please use yyyy-MM.");
+            return;
+        }
+        
+        MonthlyStatement statement = transactionManager.getMonthlyStatement(account.getAccountNumber(), month);
+        if (statement == null) {
+            System.out.println("No statement is available for this account.");
+            return;
+        }
+        String currency = account.getCurrency();
+        System.out.println("\nStatement for " + account.getAccountName() + " (" + account.getAccountNumber() + "), "
+                + MonthlyStatement.format(month));
+        System.out.println("------------------------------------------------------------------------------");
+        System.out.println("Opening Balance: " + formatMoney(statement.getOpeningBalance(), currency));
+        System.out.println("Money In:        " + formatMoney(statement.getTotalIn(), currency) + " (" + statement.getCountIn() + " transactions)");
+        System.out.println("Money Out:       " + formatMoney(statement.getTotalOut(), currency) + " (" + statement.getCountOut() + " transactions)");
+        System.out.println("Closing Balance: " + formatMoney(statement.getClosingBalance(), currency));
+        System.out.println("------------------------------------------------------------------------------");
+        
+        for (Posting posting : transactionManager.getPostings(account.getAccountNumber(), month)) {
+            String amount = (posting.isDebit() ? "-" : "+") + formatMoney(Math.abs(posting.getAmount()), currency);
+            System.out.printf("%-12s %-20s %-12s %-15s\n",
+                    new SimpleDateFormat("yyyy-MM-dd").format(posting.getDate()),
+                    posting.getTransaction().getDescription(),
+                    amount,
+                    formatMoney(posting.getBalanceAfter(), currency));
+        }
+    }
+
+    // ==================== ADMIN METHODS ====================
+
+    private static void viewAllUsers() {
+        System.out.println("\n===== ALL USERS =====");
+        List<User> allUsers = userManager.getAllUsers();
+        
+        System.out.println("Total Users: " + allUsers.size());
+        System.out.println("------------------------------------------------------------");
+        System.out.printf("%-15s %-20s %-25s %-10s\n", "Username", "Name", "Email", "Role");
+        System.out.println("------------------------------------------------------------");
+        
+        for (User user : allUsers) {
+            System.out.printf("%-15s %-20s %-25s %-10s\n", 
+                    user.getUsername(), 
+                    user.getFirstName() + " " + user.getLastName(),
+                    user.getEmail(),
+                    user.getRole());
+        }
+        System.out.println("------------------------------------------------------------");
+        
+        System.out.println("\n1. View User Details");
+        System.out.println("2. Search Users");
+        System.out.println("3. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        if (choice == 1) {
+            System.out.print("Enter username to view details: ");
+            String username = scanner.nextLine();
+            User user = userManager.getUserByUsername(username);
+            
+            if (user != null) {
+                showUserDetails(user);
+            } else {
+                System.out.println("User not found.");
+            }
+        } else if (choice == 2) {
+            searchUsers();
+        }
+    }
+
+    private static void searchUsers() {
+        System.out.print("Search by username, name or email (prefix): ");
+        String query = scanner.nextLine();
+        
+        boolean fuzzy = false;
+        int page = 0;
+        while (true) {
+            UserDirectory.Page results = userManager.searchUsers(query, fuzzy, page, USER_PAGE_SIZE);
+            if (results.getTotalMatches() == 0 && !fuzzy) {
+                // Nothing starts with the query, retry tolerating typos
+                fuzzy = true;
+                continue;
+            }
+            if (results.getTotalMatches() == 0) {
+                System.out.println("No users found.");
+                return;
+            }
+            
+            System.out.println("\n" + (fuzzy ? "Close matches" : "Matches") + " " + (page * USER_PAGE_SIZE + 1) + "-"
+                    + (page * USER_PAGE_SIZE + results.getUsers().size()) + " of " + results.getTotalMatches() + ":");
+            System.out.println("------------------------------------------------------------");
+            System.out.printf("%-15s %-20s %-25s %-10s\n", "Username", "Name", "Email", "Role");
+            System.out.println("------------------------------------------------------------");
+            for (User user : results.getUsers()) {
+                System.out.printf("%-15s %-20s %-25s %-10s\n",
+                        user.getUsername(),
+                        user.getFirstName() + " " + user.getLastName(),
+                        user.getEmail(),
+                        user.getRole());
+            }
+            System.out.println("------------------------------------------------------------");
+            
+            System.out.print("Enter a username to view details, N for the next page, P for the previous page, or press Enter to return: ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                return;
+            } else if (input.equalsIgnoreCase("N")) {
+                if ((page + 1) * USER_PAGE_SIZE < results.getTotalMatches()) {
+                    page++;
+                }
+            } else if (input.equalsIgnoreCase("P")) {
+                page = Math.max(0, page - 1);
+            } else {
+                User user = userManager.getUserByUsername(input);
+                if (user != null) {
+                    showUserDetails(user);
+                } else {
+                    System.out.println("User not found.");
+                }
+                return;
+            }
+        }
+    }
+
+    private static void showUserDetails(User user) {
+        System.out.println("\n===== USER DETAILS =====");
+        System.out.println("Username: " + user.getUsername());
+        System.out.println("Name: " + user.getFirstName() + " " + user.getLastName());
+        System.out.println("Email: " + user.getEmail());
+        System.out.println("Role: " + user.getRole());
+        
+        List<Account> userAccounts = accountManager.getAccountsByUsername(user.getUsername());
+        System.out.println("\nAccounts:");
+        if (userAccounts.isEmpty()) {
+            System.out.println("No accounts found for this user.");
+        } else {
+            for (Account account : userAccounts) {
+                System.out.println("- " + account.getAccountName() + " (" + account.getAccountNumber() + "): " + formatMoney(account.getBalance(), account.getCurrency()));
+            }
+        }
+    }
+
+    private static void viewAllAccounts() {
+        System.out.println("\n===== ALL ACCOUNTS =====");
+        try (AccountSnapshot snapshot = accountManager.snapshot()) {
+            List<Account> allAccounts = snapshot.getAccounts();
+            
+            System.out.println("Total Accounts: " + allAccounts.size());
+            System.out.println("------------------------------------------------------------");
+            System.out.printf("%-15s %-20s %-15s %-15s\n", "Account #", "Type", "Owner", "Balance");
+            System.out.println("------------------------------------------------------------");
+            
+            for (Account account : allAccounts) {
+                User owner = userManager.getUserByUsername(account.getOwnerUsername());
+                String ownerName = owner != null ? owner.getFirstName() : "Unknown";
+                
+                System.out.printf("%-15s %-20s %-15s %-15s\n", 
+                        account.getAccountNumber(), 
+                        account.getAccountName(),
+                        ownerName,
+                        formatMoney(snapshot.balanceOf(account), account.getCurrency()));
+            }
+            System.out.println("------------------------------------------------------------");
+            
+            FxRateTable fxRates = accountManager.getFxRates();
+            double totalBalance = allAccounts.stream().mapToDouble(a -> fxRates.toBase(snapshot.balanceOf(a), a.getCurrency())).sum();
+            System.out.println("Total Balance Across All Accounts: " + formatMoney(totalBalance, FxRateTable.BASE_CURRENCY));
+        }
+    }
+
+    private static void viewAllTransactions() {
+        System.out.println("\n===== ALL TRANSACTIONS =====");
+        // Only the in-memory tier is listed; the filters below also search archived transactions
+        List<Transaction> allTransactions = transactionManager.getAllTransactions();
+        
+        // Sort transactions by date (newest first)
+        allTransactions.sort((t1, t2) -> t2.getDate().compareTo(t1.getDate()));
+        
+        System.out.println("Total Transactions: " + transactionManager.getTransactionCount());
+        int archivedCount = transactionManager.getArchivedCount();
+        if (archivedCount > 0) {
+            System.out.println("Showing the " + allTransactions.size() + " most recent; " + archivedCount
+                    + " archived transactions are included when filtering.");
+        }
+        System.out.println("------------------------------------------------------------");
+        System.out.printf("%-12s %-12s %-15s %-15s %-10s %-20s\n", 
+                "Transaction", "Date", "From", "To", "Amount", "Description");
+        System.out.println("------------------------------------------------------------");
+        
+        for (Transaction transaction : allTransactions) {
+            System.out.printf("%-12s %-12s %-15s %-15s %-10s %-20s\n", 
+                    transaction.getTransactionId(),
+                    new SimpleDateFormat("yyyy-MM-dd").format(transaction.getDate()),
+                    transaction.getFromAccount(),
+                    transaction.getToAccount(),
+                    formatMoney(transaction.getAmount(), transaction.getCurrency()),
+                    transaction.getDescription());
+        }
+        System.out.println("------------------------------------------------------------");
+        
+        System.out.println("\n1. Filter Transactions");
+        System.out.println("2. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        if (choice == 1) {
+            System.out.println("\n===== FILTER TRANSACTIONS =====");
+            System.out.println("1. Filter by Account");
+            System.out.println("2. Filter by Date Range");
+            System.out.println("3. Filter by Amount");
+            System.out.println("4. Search by Description");
+            System.out.print("Choose an option: ");
+            
+            int filterChoice = getIntInput();
+            List<Transaction> filteredTransactions = new ArrayList<>();
+            
+            switch (filterChoice) {
+                case 1:
+                    System.out.print("Enter account number: ");
+                    String accountNumber = scanner.nextLine();
+                    filteredTransactions = transactionManager.getTransactionsByAccountNumber(accountNumber);
+                    break;
+                case 2:
+                    System.out.println("Enter start date (yyyy-MM-dd): ");
+                    String startDateStr = scanner.nextLine();
+                    System.out.println("Enter end date (yyyy-MM-dd): ");
+                    String endDateStr = scanner.nextLine();
+                    
+                    try {
+                        Date startDate = new SimpleDateFormat("yyyy-MM-dd").parse(startDateStr);
+                        Calendar cal = Calendar.getInstance();
+                        cal.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(endDateStr));
+                        cal.add(Calendar.DAY_OF_MONTH, 1);
+                        
+                        TransactionQuery dateQuery = new TransactionQuery(null);
+                        dateQuery.setStartDate(startDate);
+                        dateQuery.setEndDate(cal.getTime());
+                        filteredTransactions = transactionManager.search(dateQuery);
+                    } catch (Exception e) {
+                        System.out.println("Invalid date format. Please use yyyy-MM-dd.");
+                        return;
+                    }
+                    break;
+                case 3:
+                    System.out.print("Enter minimum amount (" + FxRateTable.BASE_CURRENCY + "): ");
+                    double minAmount = getDoubleInput();
+                    System.out.print("Enter maximum amount (" + FxRateTable.BASE_CURRENCY + "): ");
+                    double maxAmount = getDoubleInput();
+                    
+                    TransactionQuery amountQuery = new TransactionQuery(null);
+                    amountQuery.setMinAmount(minAmount);
+                    amountQuery.setMaxAmount(maxAmount);
+                    amountQuery.setFxRates(accountManager.getFxRates());
+                    filteredTransactions = transactionManager.search(amountQuery);
+                    break;
+                case 4:
+                    TransactionQuery query = readTransactionQuery();
+                    if (query == null) {
+                        return;
+                    }
+                    filteredTransactions = transactionManager.search(query);
+                    break;
+                default:
+                    System.out.println("Invalid option.");
+                    return;
+            }
+            
+            if (filteredTransactions.isEmpty()) {
+                System.out.println("No transactions found matching the filter criteria.");
+                return;
+            }
+            
+            // Sort filtered transactions by date (newest first)
+            filteredTransactions.sort((t1, t2) -> t2.getDate().compareTo(t1.getDate()));
+            
+            System.out.println("\n===== FILTERED TRANSACTIONS =====");
+            System.out.println("Transactions Found: " + filteredTransactions.size());
+            System.out.println("------------------------------------------------------------");
+            System.out.printf("%-12s %-12s %-15s %-15s %-10s %-20s\n", 
+                    "Transaction", "Date", "From", "To", "Amount", "Description");
+            System.out.println("------------------------------------------------------------");
+            
+            for (Transaction transaction : filteredTransactions) {
+                System.out.printf("%-12s %-12s %-15s %-15s %-10s %-20s\n", 
+                        transaction.getTransactionId(),
+                        new SimpleDateFormat("yyyy-MM-dd").format(transaction.getDate()),
+                        transaction.getFromAccount(),
+                        transaction.getToAccount(),
+                        formatMoney(transaction.getAmount(), transaction.getCurrency()),
+                        transaction.getDescription());
+            }
+            System.out.println("------------------------------------------------------------");
+        }
+    }
+
+    private static void createNewAccount() {
+        System.out.println("\n===== CREATE NEW ACCOUNT =====");
+        System.out.print("Enter username of account owner: ");
+        String username = scanner.nextLine();
+        
+        User user = userManager.getUserByUsername(username);
+        if (user == null) {
+            System.out.println("User not found.");
+            return;
+        }
+        
+        System.out.println("Select account type:");
+        System.out.println("1. Checking Account");
+        System.out.println("2. Savings Account");
+        System.out.println("3. Credit Card");
+        System.out.println("4. Loan Account");
+        System.out.print("Enter your choice: ");
+        
+        int typeChoice = getIntInput();
+        String accountType;
+        
+        switch (typeChoice) {
+            case 1:
+                accountType = "Checking Account";
+                break;
+            case 2:
+                accountType = "Savings Account";
+                break;
+            case 3:
+                accountType = "Credit Card";
+                break;
+            case 4:
+                accountType = "Loan Account";
+                break;
+            default:
+                System.out.println("Invalid account type.");
+                return;
+        }
+        
+        System.out.print("Enter currency (" + String.join("/", accountManager.getFxRates().getCurrencies())
+                + ", default " + FxRateTable.BASE_CURRENCY + "): ");
+        String currency = scanner.nextLine().trim().toUpperCase();
+        if (currency.isEmpty()) {
+            currency = FxRateTable.BASE_CURRENCY;
+        } else if (!accountManager.getFxRates().supports(currency)) {
+            System.out.println("Unsupported currency.");
+            return;
+        }
+        
+        System.out.print("Enter initial balance (" + currency + "): ");
+        double initialBalance = getDoubleInput();
+        
+        if (initialBalance < 0 && (typeChoice == 1 || typeChoice == 2)) {
+            System.out.println("Initial balance cannot be negative for checking or savings accounts.");
+            return;
+        }
+        
+        // Generate account number
+        String accountPrefix;
+        switch (typeChoice) {
+            case 1:
+                accountPrefix = "CHK";
+                break;
+            case 2:
+                accountPrefix = "SAV";
+                break;
+            case 3:
+                accountPrefix = "CRD";
+                break;
+            case 4:
+                accountPrefix = "LN";
+                break;
+            default:
+                accountPrefix = "ACC";
+        }
+        
+        int accountCount = accountManager.getAllAccounts().size() + 1;
+        String accountNumber = accountPrefix + "-" + String.format("%03d", accountCount);
+        
+        Account newAccount = new Account(accountNumber, accountType, username, initialBalance, currency);
+        accountManager.addAccount(newAccount);
+        transactionManager.openLedgerAccount(accountNumber, initialBalance);
+        
+        System.out.println("Account created successfully!");
+        System.out.println("Account Number: " + accountNumber);
+        System.out.println("Account Type: " + accountType);
+        System.out.println("Initial Balance: " + formatMoney(initialBalance, currency));
+    }
+
+    private static void showSystemStatistics() {
+        long start = System.nanoTime();
+        try {
+            printSystemStatistics();
+        } finally {
+            Metrics.STATISTICS_REPORT.recordSince(start);
+        }
+    }
+
+    private static void printSystemStatistics() {
+        System.out.println("\n===== SYSTEM STATISTICS =====");
+        
+        SystemStatistics stats = SystemStatistics.compute(userManager, accountManager, transactionManager);
+        String base = FxRateTable.BASE_CURRENCY;
+        
+        // Print statistics
+        System.out.println("Total Users: " + stats.getUserCount() + " (" + stats.getCustomerCount() + " customers, " + stats.getAdminCount() + " admins)");
+        System.out.println("Total Accounts: " + stats.getAccountCount());
+        System.out.println("Total Transactions: " + stats.getTransactionCount());
+        System.out.println("Total Balance (" + base + "): " + formatMoney(stats.getTotalBalance(), base));
+        System.out.println("Average Account Balance (" + base + "): " + formatMoney(stats.getAverageBalance(), base));
+        
+        System.out.println("\nBalances by Currency:");
+        for (Map.Entry<String, Double> entry : stats.getBalanceByCurrency().entrySet()) {
+            System.out.println("- " + entry.getKey() + ": " + formatMoney(entry.getValue(), entry.getKey()));
+        }
+        
+        System.out.println("\nAccount Types:");
+        for (Map.Entry<String, Long> entry : stats.getAccountTypeCount().entrySet()) {
+            System.out.println("- " + entry.getKey() + ": " + entry.getValue());
+        }
+        
+        System.out.println("\nTransaction Statistics:");
+        System.out.println("Total Transaction Amount (" + base + "): " + formatMoney(stats.getTotalTransactionAmount(), base));
+        System.out.println("Average Transaction Amount (" + base + "): " + formatMoney(stats.getAverageTransactionAmount(), base));
+        for (Map.Entry<String, Double> entry : stats.getTransactionAmountByCurrency().entrySet()) {
+            System.out.println("- Volume in " + entry.getKey() + ": " + formatMoney(entry.getValue(), entry.getKey()));
+        }
+        
+        Transaction largestTransaction = stats.getLargestTransaction();
+        if (largestTransaction != null) {
+            System.out.println("Largest Transaction: " + formatMoney(largestTransaction.getAmount(), largestTransaction.getCurrency()) + 
+                    " (" + largestTransaction.getTransactionId() + ")");
+        }
+        
+        // Get recent activity
+        System.out.println("\nRecent Activity:");
+        stats.getRecentTransactions()
+                .forEach(t -> System.out.println("- " + DATE_FORMAT.format(t.getDate()) + ": " + 
+                        t.getDescription() + " - " + formatMoney(t.getAmount(), t.getCurrency())));
+    }
+
+    private static void importExportData() {
+        System.out.println("\n===== IMPORT / EXPORT DATA =====");
+        System.out.println("1. Import Users");
+        System.out.println("2. Import Accounts");
+        System.out.println("3. Import Transactions");
+        System.out.println("4. Export Users");
+        System.out.println("5. Export Accounts");
+        System.out.println("6. Export Transactions");
+        System.out.println("7. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        if (choice < 1 || choice > 6) {
+            if (choice != 7) {
+                System.out.println("Invalid option.");
+            }
+            return;
+        }
+        
+        System.out.print("Enter file path (.csv or .bin): ");
+        Path path = Paths.get(scanner.nextLine());
+        DataPorter porter = new DataPorter(userManager, accountManager, transactionManager);
+        
+        try {
+            TransferReport report;
+            switch (choice) {
+                case 1:
+                    report = porter.importUsers(path);
+                    break;
+                case 2:
+                    report = porter.importAccounts(path);
+                    break;
+                case 3:
+                    report = porter.importTransactions(path);
+                    break;
+                case 4:
+                    report = porter.exportUsers(path);
+                    break;
+                case 5:
+                    report = porter.exportAccounts(path);
+                    break;
+                default:
+                    report = porter.exportTransactions(path);
+            }
+            System.out.println("Completed " + report);
+        } catch (IOException e) {
+            System.out.println("Data transfer failed: " + e.getMessage());
+        }
+    }
+
+    private static void viewBalanceAsOf() {
+        System.out.println("\n===== BALANCE AS OF DATE =====");
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine();
+        
+        Account account = accountManager.getAccountByNumber(accountNumber);
+        if (account == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+        
+        System.out.println("Enter date (yyyy-MM-dd HH:mm:ss, or yyyy-MM-dd for end of day): ");
+        String dateStr = scanner.nextLine();
+        Date asOf;
+        try {
+            asOf = DATE_FORMAT.parse(dateStr);
+        } catch (Exception e) {
+            try {
+                Calendar cal = Calendar.getInstance();
+                cal.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(dateStr));
+                cal.add(Calendar.DAY_OF_MONTH, 1);
+                cal.add(Calendar.MILLISECOND, -1);
+                asOf = cal.getTime();
+            } catch (Exception ex) {
+                System.out.println("Invalid date format. Please use yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.");
+                return;
+            }
+        }
+        
+        System.out.println("Account: " + account.getAccountName() + " (" + account.getAccountNumber() + ")");
+        System.out.println("Balance as of " + DATE_FORMAT.format(asOf) + ": "
+                + formatMoney(transactionManager.balanceAt(accountNumber, asOf), account.getCurrency()));
+    }
+
+    private static void reconcileLedger() {
+        System.out.println("\n===== LEDGER RECONCILIATION =====");
+        System.out.println("1. Run Reconciliation Now");
+        System.out.println("2. View Last Nightly Report");
+        System.out.println("3. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        
+        int choice = getIntInput();
+        ReconciliationReport report;
+        switch (choice) {
+            case 1:
+                report = reconciliationJob.run();
+                break;
+            case 2:
+                report = reconciliationJob.getLastReport();
+                if (report == null) {
+                    System.out.println("No reconciliation has run yet.");
+                    return;
+                }
+                break;
+            case 3:
+                return;
+            default:
+                System.out.println("Invalid option.");
+                return;
+        }
+        
+        System.out.println("Run at: " + DATE_FORMAT.format(report.getRunAt()));
+        System.out.println("Accounts checked: " + report.getAccountsChecked());
+        System.out.println("Transactions scanned: " + report.getTransactionsScanned());
+        System.out.printf("Elapsed: %.1f ms%n", report.getElapsedNanos() / 1_000_000.0);
+        if (report.getUnknownAccountPostings() > 0) {
+            System.out.println("Postings to unknown accounts: " + report.getUnknownAccountPostings());
+        }
+        
+        List<Discrepancy> discrepancies = report.getDiscrepancies();
+        if (discrepancies.isEmpty()) {
+            System.out.println("All account balances match the transaction history.");
+            return;
+        }
+        
+        System.out.println("Discrepancies Found: " + discrepancies.size());
+        System.out.println("------------------------------------------------------------");
+        System.out.printf("%-15s %-15s %-15s %-15s\n", "Account #", "Expected", "Actual", "Difference");
+        System.out.println("------------------------------------------------------------");
+        for (Discrepancy discrepancy : discrepancies) {
+            System.out.printf("%-15s %-15s %-15s %-15s\n",
+                    discrepancy.getAccountNumber(),
+                    formatMoney(discrepancy.getExpectedBalance(), accountCurrency(discrepancy.getAccountNumber())),
+                    formatMoney(discrepancy.getActualBalance(), accountCurrency(discrepancy.getAccountNumber())),
+                    formatMoney(discrepancy.getDifference(), accountCurrency(discrepancy.getAccountNumber())));
+        }
+        System.out.println("------------------------------------------------------------");
+    }
+
+    private static void manageFxRates() {
+        System.out.println("\n===== FX RATES =====");
+        System.out.println("Base currency: " + FxRateTable.BASE_CURRENCY);
+        for (Map.Entry<String, Double> entry : accountManager.getFxRates().getRates().entrySet()) {
+            System.out.println("- 1 " + entry.getKey() + " = " + entry.getValue() + " " + FxRateTable.BASE_CURRENCY);
+        }
+        
+        System.out.println("\n1. Reload Rates From File");
+        System.out.println("2. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        
+        if (getIntInput() == 1) {
+            System.out.print("Enter rate file path (CODE,rate per line): ");
+            try {
+                int loaded = accountManager.getFxRates().refreshFrom(Paths.get(scanner.nextLine()));
+                System.out.println("Loaded " + loaded + " rates.");
+            } catch (IOException e) {
+                System.out.println("Could not read rate file: " + e.getMessage());
+            }
+        }
+    }
+
+    private static TransactionQuery readTransactionQuery() {
+        System.out.print("Enter search words (end a word with * for prefix search): ");
+        TransactionQuery query = new TransactionQuery(scanner.nextLine());
+        query.setFxRates(accountManager.getFxRates());
+        
+        System.out.println("Optionally narrow the search (press Enter to skip):");
+        System.out.print("Account number: ");
+        String accountNumber = scanner.nextLine().trim();
+        if (!accountNumber.isEmpty()) {
+            query.setAccountNumber(accountNumber);
+        }
+        
+        try {
+            System.out.print("Start date (yyyy-MM-dd): ");
+            String startDateStr = scanner.nextLine().trim();
+            if (!startDateStr.isEmpty()) {
+                query.setStartDate(new SimpleDateFormat("yyyy-MM-dd").parse(startDateStr));
+            }
+            System.out.print("End date (yyyy-MM-dd): ");
+            String endDateStr = scanner.nextLine().trim();
+            if (!endDateStr.isEmpty()) {
+                Calendar cal = Calendar.getInstance();
+                cal.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(endDateStr));
+                cal.add(Calendar.DAY_OF_MONTH, 1);
+                query.setEndDate(cal.getTime());
+            }
+        } catch (Exception e) {
+            System.out.println("Invalid date format. Please use yyyy-MM-dd.");
+            return null;
+        }
+        
+        try {
+            System.out.print("Minimum amount (" + FxRateTable.BASE_CURRENCY + "): ");
+            String minAmountStr = scanner.nextLine().trim();
+            if (!minAmountStr.isEmpty()) {
+                query.setMinAmount(Double.parseDouble(minAmountStr));
+            }
+            System.out.print("Maximum amount (" + FxRateTable.BASE_CURRENCY + "): ");
+            String maxAmountStr = scanner.nextLine().trim();
+            if (!maxAmountStr.isEmpty()) {
+                query.setMaxAmount(Double.parseDouble(maxAmountStr));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid amount.");
+            return null;
+        }
+        return query;
+    }
+
+    private static void viewMetrics() {
+        System.out.println("\n===== METRICS =====");
+        System.out.println("Latencies in microseconds");
+        System.out.println("------------------------------------------------------------------------------------------");
+        System.out.printf("%-32s %10s %10s %10s %10s %10s %10s\n", "Operation", "Count", "Mean", "p50", "p90", "p99", "Max");
+        System.out.println("------------------------------------------------------------------------------------------");
+        for (Map.Entry<String, LatencyHistogram> entry : Metrics.histograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            System.out.printf("%-32s %10d %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getMeanNanos() / 1000.0,
+                    histogram.getPercentileNanos(50) / 1000.0,
+                    histogram.getPercentileNanos(90) / 1000.0,
+                    histogram.getPercentileNanos(99) / 1000.0,
+                    histogram.getMaxNanos() / 1000.0);
+        }
+        System.out.println("------------------------------------------------------------------------------------------");
+        for (Map.Entry<String, LongAdder> entry : Metrics.counters().entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue().sum());
+        }
+        
+        System.out.println("\n1. Reset Metrics");
+        System.out.println("2. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        if (getIntInput() == 1) {
+            Metrics.reset();
+            System.out.println("Metrics reset.");
+        }
+    }
+
+    private static void generateStatements() {
+        System.out.println("\n===== MONTHLY STATEMENTS =====");
+        TransferReport lastRun = statementJob.getLastRun();
+        if (lastRun != null) {
+            System.out.println("Last run: " + lastRun);
+        }
+        
+        int previousMonth = MonthlyStatement.monthOf(System.currentTimeMillis()) - 1;
+        System.out.print("Month (yyyy-MM, blank for " + MonthlyStatement.format(previousMonth) + "): ");
+        String monthStr = scanner.nextLine().trim();
+        int month = monthStr.isEmpty() ? previousMonth : MonthlyStatement.parse(monthStr);
+        if (month < 0) {
+            System.out.println("Invalid month. Please use yyyy-MM.");
+            return;
+        }
+        
+        Path defaultPath = StatementJob.defaultPath(Paths.get("."), month);
+        System.out.print("Output file (blank for " + defaultPath.getFileName() + ", .csv for readable text): ");
+        String pathStr = scanner.nextLine().trim();
+        Path path = pathStr.isEmpty() ? defaultPath : Paths.get(pathStr);
+        try {
+            System.out.println(statementJob.run(month, path));
+            System.out.println("Statements written to " + path);
+        } catch (IOException e) {
+            System.out.println("Could not write statements: " + e.getMessage());
+        }
+    }
+
+    private static void manageHolds() {
+        System.out.println("\n===== ACCOUNT HOLDS =====");
+        System.out.println("Outstanding holds: " + holdManager.getOutstandingCount()
+                + ", awaiting settlement: " + holdManager.getPendingSettlementCount());
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine().trim();
+        Account account = accountManager.getAccountByNumber(accountNumber);
+        if (account == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+        
+        String currency = account.getCurrency();
+        System.out.println("Balance: " + formatMoney(account.getBalance(), currency)
+                + ", On Hold: " + formatMoney(account.getHeldAmount(), currency)
+                + ", Available: " + formatMoney(account.getAvailableBalance(), currency));
+        System.out.println("------------------------------------------------------------");
+        System.out.printf("%-8s %-12s %-15s %-12s %-12s %-20s\n", "Hold", "Status", "Payee", "Amount", "Expires", "Description");
+        System.out.println("------------------------------------------------------------");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        for (Hold hold : holdManager.getHolds(accountNumber)) {
+            System.out.printf("%-8d %-12s %-15s %-12s %-12s %-20s\n", hold.getId(), hold.getStatus(), hold.getPayeeAccountNumber(),
+                    formatMoney(hold.getAmount(), currency), dateFormat.format(hold.getExpiresAt()), hold.getDescription());
+        }
+        System.out.println("------------------------------------------------------------");
+        
+        System.out.println("1. Authorize Hold");
+        System.out.println("2. Capture Hold");
+        System.out.println("3. Release Hold");
+        System.out.println("4. Back to Admin Menu");
+        System.out.print("Choose an option: ");
+        switch (getIntInput()) {
+            case 1:
+                System.out.print("Enter payee account number: ");
+                String payee = scanner.nextLine().trim();
+                System.out.print("Enter amount (" + currency + "): ");
+                double amount = getDoubleInput();
+                System.out.print("Enter description: ");
+                String description = scanner.nextLine();
+                Hold hold = holdManager.authorize(accountNumber, payee, amount, description, HoldManager.DEFAULT_HOLD_MILLIS);
+                System.out.println(hold != null ? "Hold " + hold.getId() + " authorized." : "Authorization declined.");
+                break;
+            case 2:
+                System.out.print("Enter hold id: ");
+                long captureId = getIntInput();
+                Hold captured = holdManager.getHold(captureId);
+                if (captured == null) {
+                    System.out.println("Hold not found.");
+                    break;
+                }
+                System.out.print("Enter amount to capture (blank for " + formatMoney(captured.getAmount(), currency) + "): ");
+                String captureStr = scanner.nextLine().trim();
+                double captureAmount;
+                try {
+                    captureAmount = captureStr.isEmpty() ? captured.getAmount() : Double.parseDouble(captureStr);
+                } catch (NumberFormatException e) {
+                    captureAmount = -1;
+                }
+                System.out.println(holdManager.capture(captureId, captureAmount)
+                        ? "Hold captured; it will settle with the next batch." : "Hold could not be captured.");
+                break;
+            case 3:
+                System.out.print("Enter hold id: ");
+                System.out.println(holdManager.release(getIntInput()) ? "Hold released." : "Hold could not be released.");
+                break;
+            case 4:
+                break;
+            default:
+                System.out.println("Invalid option.");
+        }
+    }
+
+    // ==================== UTILITY METHODS ====================
+
+    private static int getIntInput() {
+        try {
+            return Integer.parseInt(scanner.nextLine());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double getDoubleInput() {
+        try {
+            return Double.parseDouble(scanner.nextLine());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String formatMoney(double amount, String currency) {
+        DecimalFormat format = CURRENCY_FORMATS.computeIfAbsent(currency, code -> {
+            if (code.equals("USD")) {
+                return MONEY_FORMAT;
+            }
+            try {
+                String symbol = Currency.getInstance(code).getSymbol(Locale.US);
+                return new DecimalFormat("'" + symbol.replace("'", "''") + "'#,##0.00");
+            } catch (IllegalArgumentException e) {
+                return new DecimalFormat("'" + code + " '#,##0.00");
+            }
+        });
+        return format.format(amount);
+    }
+
+    private static String accountCurrency(String accountNumber) {
+        Account account = accountManager.getAccountByNumber(accountNumber);
+        return account != null ? account.getCurrency() : FxRateTable.BASE_CURRENCY;
+    }
+
+    // ==================== MODEL CLASSES ====================
+
+    enum UserRole {
+        CUSTOMER,
+        ADMIN
+    }
+
+    static class User {
+        private String username;
+        private String password;
+        private String firstName;
+        private String lastName;
+        private String email;
+        private UserRole role;
+
+        public User(String username, String password, String firstName, String lastName, String email, UserRole role) {
+            this.username = username;
+            this.password = password;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.email = email;
+            this.role = role;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public String getFirstName() {
+            return firstName;
+        }
+
+        public void setFirstName(String firstName) {
+            this.firstName = firstName;
+        }
+
+        public String getLastName() {
+            return lastName;
+        }
+
+        public void setLastName(String lastName) {
+            this.lastName = lastName;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public void setEmail(String email) {
+            this.email = email;
+        }
+
+        public UserRole getRole() {
+            return role;
+        }
+    }
+
+    /**
+     * A bank account. The balance is held as a chain of immutable versions so
+     * readers never lock: the newest version is always a committed balance, and
+     * older versions stay reachable for as long as a snapshot may need them.
+     */
+    static class Account {
+        private String accountNumber;
+        private String accountName;
+        private String ownerUsername;
+        private volatile AccountVersion current;
+        // Total of outstanding holds; changed only with the account locked
+        private volatile double held;
+        private String currency;
+
+        public Account(String accountNumber, String accountName, String ownerUsername, double balance) {
+            this(accountNumber, accountName, ownerUsername, balance, FxRateTable.BASE_CURRENCY);
+        }
+
+        public Account(String accountNumber, String accountName, String ownerUsername, double balance, String currency) {
+            this.accountNumber = accountNumber;
+            this.accountName = accountName;
+            this.ownerUsername = ownerUsername;
+            this.current = new AccountVersion(balance, 0, null);
+            this.currency = currency;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public String getAccountName() {
+            return accountName;
+        }
+
+        public String getOwnerUsername() {
+            return ownerUsername;
+        }
+
+        public double getBalance() {
+            return current.balance;
+        }
+
+        public double getHeldAmount() {
+            return held;
+        }
+
+        /** Ledger balance less outstanding holds; what transfers and new holds may spend. */
+        public double getAvailableBalance() {
+            return current.balance - held;
+        }
+
+        /** Must be called with the account locked. */
+        void adjustHeld(double amount) {
+            held += amount;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        /**
+         * Balance as of the given commit version, or NaN if that version has
+         * already been pruned and the caller must retry with a newer one.
+         */
+        double balanceAt(long version) {
+            AccountVersion candidate = current;
+            while (candidate != null && candidate.version > version) {
+                candidate = candidate.previous;
+            }
+            return candidate != null ? candidate.balance : Double.NaN;
+        }
+
+        /**
+         * Installs a new balance version. Must be called with the account locked.
+         * Versions older than the current one are dropped once no open snapshot
+         * can still need them, so an account normally keeps only two versions.
+         */
+        void commit(double balance, long version, long pruneHorizon) {
+            AccountVersion previous = current;
+            if (previous.version <= pruneHorizon) {
+                previous.previous = null;
+            }
+            current = new AccountVersion(balance, version, previous);
+        }
+    }
+
+    static class AccountVersion {
+        private final double balance;
+        private final long version;
+        private volatile AccountVersion previous;
+
+        AccountVersion(double balance, long version, AccountVersion previous) {
+            this.balance = balance;
+            this.version = version;
+            this.previous = previous;
+        }
+    }
+
+    static class Transaction {
+        private String transactionId;
+        private String fromAccount;
+        private String toAccount;
+        private double amount;
+        private String currency;
+        private double creditAmount;
+        private String description;
+        private Date date;
+
+        public Transaction(String transactionId, String fromAccount, String toAccount, double amount, String description, Date date) {
+            this(transactionId, fromAccount, toAccount, amount, FxRateTable.BASE_CURRENCY, amount, description, date);
+        }
+
+        /**
+         * Creates a transaction whose amount is debited in the source account's
+         * currency and credited to the destination as creditAmount, which differs
+         * from amount only for cross-currency transfers.
+         */
+        public Transaction(String transactionId, String fromAccount, String toAccount, double amount, String currency,
+                           double creditAmount, String description, Date date) {
+            this.transactionId = transactionId;
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.amount = amount;
+            this.currency = currency;
+            this.creditAmount = creditAmount;
+            this.description = description;
+            this.date = date;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public String getFromAccount() {
+            return fromAccount;
+        }
+
+        public String getToAccount() {
+            return toAccount;
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public double getCreditAmount() {
+            return creditAmount;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+    }
+
+    /**
+     * One side of a double-entry transfer: a debit (negative amount) on the
+     * source account or a credit (positive amount) on the destination account,
+     * carrying the account's ledger balance after it was applied.
+     */
+    static class Posting {
+        private final Transaction transaction;
+        private final String accountNumber;
+        private final double amount;
+        private double balanceAfter;
+
+        public Posting(Transaction transaction, String accountNumber, double amount) {
+            this.transaction = transaction;
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public String getCounterpartyAccount() {
+            return isDebit() ? transaction.getToAccount() : transaction.getFromAccount();
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        public boolean isDebit() {
+            return amount < 0;
+        }
+
+        public double getBalanceAfter() {
+            return balanceAfter;
+        }
+
+        void setBalanceAfter(double balanceAfter) {
+            this.balanceAfter = balanceAfter;
+        }
+
+        public Date getDate() {
+            return transaction.getDate();
+        }
+    }
+
+    // ==================== MANAGER CLASSES ====================
+
+    static class UserManager {
+        private List<User> users = new ArrayList<>();
+        private Map<String, User> usersByUsername = new HashMap<>();
+        private UserDirectory directory = new UserDirectory();
+        private ChangeFeed changeFeed;
+        private LoginThrottle loginThrottle = new LoginThrottle();
+
+        /** Publishes every added user to the feed from now on. */
+        public void setChangeFeed(ChangeFeed changeFeed) {
+            this.changeFeed = changeFeed;
+        }
+
+        /** Replaces the login throttle; null turns throttling off. */
+        public void setLoginThrottle(LoginThrottle loginThrottle) {
+            this.loginThrottle = loginThrottle;
+        }
+
+        public void addUser(User user) {
+            users.add(user);
+            usersByUsername.put(user.getUsername(), user);
+            directory.add(user);
+            publishAdded(user);
+        }
+
+        public int addUsers(Collection<User> batch) {
+            int added = 0;
+            for (User user : batch) {
+                if (usersByUsername.putIfAbsent(user.getUsername(), user) == null) {
+                    users.add(user);
+                    directory.add(user);
+                    publishAdded(user);
+                    added++;
+                }
+            }
+            return added;
+        }
+
+        private void publishAdded(User user) {
+            if (changeFeed != null) {
+                changeFeed.publish(ChangeType.USER_ADDED, user.getUsername(), null, 0, 0, null);
+            }
+        }
+
+        public void updateName(User user, String firstName, String lastName) {
+            directory.remove(user);
+            user.setFirstName(firstName);
+            user.setLastName(lastName);
+            directory.add(user);
+        }
+
+        public void updateEmail(User user, String email) {
+            directory.remove(user);
+            user.setEmail(email);
+            directory.add(user);
+        }
+
+        /**
+         * Returns one page of users whose username, name or email starts with
+         * every word of the query, also allowing a few typos when fuzzy is set.
+         * Matches are listed in registration order.
+         */
+        public UserDirectory.Page searchUsers(String query, boolean fuzzy, int page, int pageSize) {
+            return directory.search(query, fuzzy, page, pageSize);
+        }
+
+        public User getUserByUsername(String username) {
+            return usersByUsername.get(username);
+        }
+
+        public LoginThrottle getLoginThrottle() {
+            return loginThrottle;
+        }
+
+        public User authenticateUser(String username, String password) {
+            return authenticateUser(username, password, null);
+        }
+
+        /**
+         * Checks the credentials unless the username or the source (a client
+         * address, or null if unknown) is currently throttled, in which case the
+         * attempt is rejected before the user is looked up.
+         */
+        public User authenticateUser(String username, String password, String source) {
+            long start = System.nanoTime();
+            long now = System.currentTimeMillis();
+            LoginThrottle throttle = loginThrottle;
+            if (throttle != null && throttle.retryAfterMillis(username, source, now) > 0) {
+                Metrics.AUTHENTICATE.recordSince(start);
+                Metrics.LOGINS_THROTTLED.increment();
+                return null;
+            }
+            User user = getUserByUsername(username);
+            User authenticated = user != null && user.getPassword().equals(password) ? user : null;
+            Metrics.AUTHENTICATE.recordSince(start);
+            if (authenticated == null) {
+                Metrics.LOGINS_FAILED.increment();
+                // Unknown usernames only count against the source, so spraying made-up
+                // names cannot fill the username sketch and throttle real customers
+                if (throttle != null) {
+                    throttle.recordFailure(user != null ? username : null, source, now);
+                }
+            }
+            return authenticated;
+        }
+
+        public List<User> getAllUsers() {
+            return new ArrayList<>(users);
+        }
+    }
+
+    /**
+     * Accounts and transfers. Reads never take locks: lookups go through a
+     * concurrent map, the account list is append-only and published by count,
+     * and balances are versioned so several accounts can be read as of one
+     * commit. Writers lock the accounts they change.
+     */
+    static class AccountManager {
+        private volatile Account[] accountSlots = new Account[16];
+        private volatile int accountCount;
+        private Map<String, Account> accountsByNumber = new ConcurrentHashMap<>();
+        private Map<String, List<Account>> accountsByOwner = new ConcurrentHashMap<>();
+        private final FxRateTable fxRates;
+        private VersionClock versions = new VersionClock();
+        private ChangeFeed changeFeed;
+
+        public AccountManager() {
+            this(new FxRateTable());
+        }
+
+        /** Converts cross-currency transfers with the given table, which may be shared. */
+        public AccountManager(FxRateTable fxRates) {
+            this.fxRates = fxRates;
+        }
+
+        public FxRateTable getFxRates() {
+            return fxRates;
+        }
+
+        /** Publishes every added account and completed transfer to the feed from now on. */
+        public void setChangeFeed(ChangeFeed changeFeed) {
+            this.changeFeed = changeFeed;
+        }
+
+        /**
+         * Accounts are registered under the manager's lock but published to the
+         * feed after it is released, so a slow blocking subscriber only holds up
+         * the caller that added the account.
+         */
+        public void addAccount(Account account) {
+            synchronized (this) {
+                append(account);
+                accountsByNumber.put(account.getAccountNumber(), account);
+                accountsByOwner.computeIfAbsent(account.getOwnerUsername(), k -> new CopyOnWriteArrayList<>()).add(account);
+            }
+            publishAdded(account);
+        }
+
+        public int addAccounts(Collection<Account> batch) {
+            List<Account> added = new ArrayList<>(batch.size());
+            synchronized (this) {
+                for (Account account : batch) {
+                    if (accountsByNumber.putIfAbsent(account.getAccountNumber(), account) == null) {
+                        append(account);
+                        accountsByOwner.computeIfAbsent(account.getOwnerUsername(), k -> new CopyOnWriteArrayList<>()).add(account);
+                        added.add(account);
+                    }
+                }
+            }
+            for (Account account : added) {
+                publishAdded(account);
+            }
+            return added.size();
+        }
+
+        private void publishAdded(Account account) {
+            if (changeFeed != null) {
+                changeFeed.publish(ChangeType.ACCOUNT_ADDED, account.getAccountNumber(), account.getOwnerUsername(),
+                        account.getBalance(), account.getBalance(), account.getCurrency());
+            }
+        }
+
+        /**
+         * Appends to the account list. The slot is filled before the count is
+         * published, so a reader that reads the count first sees every account
+         * up to it without locking.
+         */
+        private void append(Account account) {
+            Account[] slots = accountSlots;
+            int count = accountCount;
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+                accountSlots = slots;
+            }
+            slots[count] = account;
+            accountCount = count + 1;
+        }
+
+        public Account getAccountByNumber(String accountNumber) {
+            return accountsByNumber.get(accountNumber);
+        }
+
+        public List<Account> getAccountsByUsername(String username) {
+            List<Account> owned = accountsByOwner.get(username);
+            return owned != null ? new ArrayList<>(owned) : new ArrayList<>();
+        }
+
+        public List<Account> getAllAccounts() {
+            int count = accountCount;
+            return new ArrayList<>(Arrays.asList(accountSlots).subList(0, count));
+        }
+
+        /**
+         * Balances of the given accounts as of a single commit, read without
+         * locking. If a version is pruned while being read, the read is retried
+         * against the latest commit.
+         */
+        public double[] getBalances(List<Account> accounts) {
+            double[] balances = new double[accounts.size()];
+            while (true) {
+                long version = versions.getVisibleVersion();
+                boolean complete = true;
+                for (int i = 0; i < balances.length && complete; i++) {
+                    balances[i] = accounts.get(i).balanceAt(version);
+                    complete = !Double.isNaN(balances[i]);
+                }
+                if (complete) {
+                    return balances;
+                }
+            }
+        }
+
+        /**
+         * Opens a consistent view of every account and its balance as of the
+         * latest commit. Versions the snapshot needs are kept until it is
+         * closed, so long listings are never retried.
+         */
+        public AccountSnapshot snapshot() {
+            int count = accountCount;
+            Account[] slots = accountSlots;
+            return new AccountSnapshot(versions, Arrays.asList(slots).subList(0, count));
+        }
+
+        public boolean transferFunds(String fromAccountNumber, String toAccountNumber, double amount) {
+            return transfer(fromAccountNumber, toAccountNumber, amount) >= 0;
+        }
+
+        /**
+         * Moves amount, in the source account's currency, to the destination
+         * account, converting it when the currencies differ.
+         * Returns the amount credited to the destination, or -1 if the transfer failed.
+         */
+        public double transfer(String fromAccountNumber, String toAccountNumber, double amount) {
+            long start = System.nanoTime();
+            double creditAmount = applyTransfer(fromAccountNumber, toAccountNumber, amount);
+            Metrics.TRANSFER.recordSince(start);
+            if (creditAmount < 0) {
+                Metrics.TRANSFERS_FAILED.increment();
+            }
+            return creditAmount;
+        }
+
+        /** Same as transfer but not recorded in the metrics, for callers that time the whole transfer themselves. */
+        double applyTransfer(String fromAccountNumber, String toAccountNumber, double amount) {
+            double creditAmount = doTransfer(fromAccountNumber, toAccountNumber, amount);
+            if (creditAmount >= 0 && changeFeed != null) {
+                changeFeed.publish(ChangeType.TRANSFER, fromAccountNumber, toAccountNumber, amount, creditAmount,
+                        getAccountByNumber(fromAccountNumber).getCurrency());
+            }
+            return creditAmount;
+        }
+
+        /**
+         * Takes amount out of a single account, for transfers whose other side
+         * is applied elsewhere. Returns false if the account is unknown or short.
+         */
+        boolean debit(String accountNumber, double amount) {
+            Account account = getAccountByNumber(accountNumber);
+            if (account == null || amount <= 0) {
+                return false;
+            }
+            synchronized (account) {
+                if (amount > account.getAvailableBalance()) {
+                    return false;
+                }
+                commitBalance(account, account.getBalance() - amount);
+                return true;
+            }
+        }
+
+        /** Adds amount to a single account. Returns false if the account is unknown. */
+        boolean credit(String accountNumber, double amount) {
+            Account account = getAccountByNumber(accountNumber);
+            if (account == null) {
+                return false;
+            }
+            synchronized (account) {
+                commitBalance(account, account.getBalance() + amount);
+                return true;
+            }
+        }
+
+        private void commitBalance(Account account, double balance) {
+            long version = versions.begin();
+            try {
+                account.commit(balance, version, versions.getPruneHorizon());
+            } finally {
+                versions.publish(version);
+            }
+        }
+
+        private double doTransfer(String fromAccountNumber, String toAccountNumber, double amount) {
+            Account fromAccount = getAccountByNumber(fromAccountNumber);
+            Account toAccount = getAccountByNumber(toAccountNumber);
+            
+            if (fromAccount == null || toAccount == null) {
+                return -1;
+            }
+            
+            // Lock both accounts in account number order so concurrent transfers cannot deadlock
+            Account first = fromAccountNumber.compareTo(toAccountNumber) <= 0 ? fromAccount : toAccount;
+            Account second = first == fromAccount ? toAccount : fromAccount;
+            synchronized (first) {
+                synchronized (second) {
+                    return transferLocked(fromAccount, toAccount, amount);
+                }
+            }
+        }
+
+        /**
+         * Sets amount aside on the account as a hold. The ledger balance is left
+         * alone; only the available balance drops. Returns false if the account
+         * is unknown or its available balance is short.
+         */
+        boolean reserve(Account account, double amount) {
+            if (amount <= 0) {
+                return false;
+            }
+            synchronized (account) {
+                if (amount > account.getAvailableBalance()) {
+                    return false;
+                }
+                account.adjustHeld(amount);
+                return true;
+            }
+        }
+
+        void unreserve(Account account, double amount) {
+            synchronized (account) {
+                account.adjustHeld(-amount);
+            }
+        }
+
+        /**
+         * Settles a hold: frees heldAmount on the source and moves amount, which
+         * must not exceed it, to the destination like a transfer. The funds were
+         * already set aside, so available balance is not checked again. Returns
+         * the amount credited, or -1 if the currencies cannot be converted, in
+         * which case the hold is still outstanding.
+         */
+        double settle(Account fromAccount, Account toAccount, double heldAmount, double amount) {
+            Account first = fromAccount.getAccountNumber().compareTo(toAccount.getAccountNumber()) <= 0 ? fromAccount : toAccount;
+            Account second = first == fromAccount ? toAccount : fromAccount;
+            double creditAmount;
+            synchronized (first) {
+                synchronized (second) {
+                    creditAmount = fxRates.convert(amount, fromAccount.getCurrency(), toAccount.getCurrency());
+                    if (Double.isNaN(creditAmount)) {
+                        return -1;
+                    }
+                    fromAccount.adjustHeld(-heldAmount);
+                    commitTransfer(fromAccount, toAccount, amount, creditAmount);
+                }
+            }
+            if (changeFeed != null) {
+                changeFeed.publish(ChangeType.TRANSFER, fromAccount.getAccountNumber(), toAccount.getAccountNumber(), amount,
+                        creditAmount, fromAccount.getCurrency());
+            }
+            return creditAmount;
+        }
+
+        /** The available balance check is O(1) however many holds the account has outstanding. */
+        private double transferLocked(Account fromAccount, Account toAccount, double amount) {
+            if (amount <= 0 || amount > fromAccount.getAvailableBalance()) {
+                return -1;
+            }
+            
+            double creditAmount = fxRates.convert(amount, fromAccount.getCurrency(), toAccount.getCurrency());
+            if (Double.isNaN(creditAmount)) {
+                return -1;
+            }
+            
+            commitTransfer(fromAccount, toAccount, amount, creditAmount);
+            return creditAmount;
+        }
+
+        private void commitTransfer(Account fromAccount, Account toAccount, double amount, double creditAmount) {
+            // Both balances change under one commit version, so snapshot readers
+            // see either the whole transfer or none of it
+            long version = versions.begin();
+            try {
+                long pruneHorizon = versions.getPruneHorizon();
+                fromAccount.commit(fromAccount.getBalance() - amount, version, pruneHorizon);
+                toAccount.commit(toAccount.getBalance() + creditAmount, version, pruneHorizon);
+            } finally {
+                versions.publish(version);
+            }
+        }
+    }
+
+    /**
+     * Commit versions for account balances. Writers take a version while holding
+     * their account locks and publish it in order, so the visible version always
+     * marks a point where every earlier commit is complete. Open snapshots are
+     * tracked so version chains are only pruned below the oldest one.
+     */
+    static class VersionClock {
+        private static final long NO_PRUNING = -1;
+
+        private final AtomicLong nextVersion = new AtomicLong();
+        private volatile long visibleVersion;
+        private volatile long pruneHorizon = Long.MAX_VALUE;
+        private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+
+        long begin() {
+            return nextVersion.incrementAndGet();
+        }
+
+        void publish(long version) {
+            // Earlier versions belong to writers that already hold their locks
+            // and are only installing balances, so this wait is short
+            while (visibleVersion != version - 1) {
+                Thread.yield();
+            }
+            visibleVersion = version;
+        }
+
+        long getVisibleVersion() {
+            return visibleVersion;
+        }
+
+        long getPruneHorizon() {
+            return pruneHorizon;
+        }
+
+        long open() {
+            synchronized (openSnapshots) {
+                // Suspend pruning until the new snapshot is registered, so no
+                // writer can drop a version it is about to read
+                pruneHorizon = NO_PRUNING;
+                long version = visibleVersion;
+                openSnapshots.merge(version, 1, Integer::sum);
+                pruneHorizon = openSnapshots.firstKey();
+                return version;
+            }
+        }
+
+        void close(long version) {
+            synchronized (openSnapshots) {
+                openSnapshots.computeIfPresent(version, (k, count) -> count > 1 ? count - 1 : null);
+                pruneHorizon = openSnapshots.isEmpty() ? Long.MAX_VALUE : openSnapshots.firstKey();
+            }
+        }
+    }
+
+    /**
+     * Every account and its balance as of one commit version. Close it when done
+     * so older balance versions can be pruned again.
+     */
+    static class AccountSnapshot implements AutoCloseable {
+        private final VersionClock versions;
+        private final long version;
+        private final List<Account> accounts;
+        private boolean closed;
+
+        AccountSnapshot(VersionClock versions, List<Account> accounts) {
+            this.versions = versions;
+            this.version = versions.open();
+            this.accounts = Collections.unmodifiableList(accounts);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<Account> getAccounts() {
+            return accounts;
+        }
+
+        public double balanceOf(Account account) {
+            return account.balanceAt(version);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                versions.close(version);
+            }
+        }
+    }
+
+    /**
+     * Transaction log with its indexes and ledger. Public methods are synchronized
+     * so the log can be appended to and queried from several threads.
+     */
+    static class TransactionManager {
+        /** Largest number of transactions written to one segment file. */
+        static final int MAX_SEGMENT_RECORDS = 1 << 20;
+        private static final String SEGMENT_GLOB = "transactions-*.seg";
+
+        private List<Transaction> transactions = new ArrayList<>();
+        private Map<String, List<Transaction>> transactionsByAccount = new HashMap<>();
+
+        private Ledger ledger = new Ledger();
+        private DescriptionIndex descriptionIndex = new DescriptionIndex();
+
+        // Archived transactions, which live only in memory-mapped segment files
+        private final List<TransactionSegment> segments = new ArrayList<>();
+        private final Object archiveLock = new Object();
+        private int archivedCount;
+        private long archivedBefore = Long.MIN_VALUE;
+
+        public TransactionManager() {
+        }
+
+        /**
+         * Reopens the segments archived into the directory by an earlier run, so
+         * archived history stays queryable across restarts and each ledger
+         * carries its archived postings and monthly totals forward. Only for
+         * callers that also restore the accounts the segments belong to; each
+         * restored account's ledger should then be aligned to its balance with
+         * alignLedgerAccount. A directory that cannot be read is reported and
+         * left for the next archive run to recreate.
+         */
+        public TransactionManager(Path segmentDirectory) {
+            try {
+                loadSegments(segmentDirectory);
+            } catch (IOException e) {
+                System.err.println("Could not reopen archived transactions in " + segmentDirectory + ": " + e.getMessage());
+            }
+        }
+
+        private synchronized void loadSegments(Path directory) throws IOException {
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+                stream.forEach(paths::add);
+            }
+            // Names carry a zero-padded sequence, so name order is archive order
+            Collections.sort(paths);
+            for (Path path : paths) {
+                TransactionSegment segment = TransactionSegment.open(path);
+                segments.add(segment);
+                archivedCount += segment.getRecordCount();
+                if (segment.getRecordCount() > 0) {
+                    archivedBefore = Math.max(archivedBefore, segment.getMaxTime() + 1);
+                }
+                segment.forEachAccountNet(ledger::carry);
+                segment.forEachAccountMonth(ledger::carryMonth);
+            }
+        }
+
+        /** The next unused segment name in the directory. */
+        private static Path nextSegmentPath(Path directory) throws IOException {
+            long last = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    try {
+                        last = Math.max(last, Long.parseLong(name.substring("transactions-".length(), name.length() - ".seg".length())));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            }
+            return directory.resolve(String.format("transactions-%08d.seg", last + 1));
+        }
+
+        public synchronized void addTransaction(Transaction transaction) {
+            transactions.add(transaction);
+            index(transaction);
+            descriptionIndex.add(transactions.size() - 1, transaction.getDescription());
+            ledger.post(transaction);
+        }
+
+        public synchronized void addTransactions(Collection<Transaction> batch) {
+            int ordinal = transactions.size();
+            transactions.addAll(batch);
+            for (Transaction transaction : batch) {
+                index(transaction);
+                descriptionIndex.add(ordinal++, transaction.getDescription());
+                ledger.post(transaction);
+            }
+        }
+
+        /**
+         * Records one leg of a transaction whose other account is kept by another
+         * shard. The transaction joins this log, and its description index, only
+         * on the debit side so it is stored once across shards.
+         */
+        public synchronized void addTransactionLeg(Transaction transaction, String accountNumber) {
+            if (accountNumber.equals(transaction.getFromAccount())) {
+                transactions.add(transaction);
+                descriptionIndex.add(transactions.size() - 1, transaction.getDescription());
+            }
+            transactionsByAccount.computeIfAbsent(accountNumber, k -> new ArrayList<>()).add(transaction);
+            ledger.postLeg(transaction, accountNumber);
+        }
+
+        /**
+         * Finds transactions matching the query. Description words are resolved
+         * through the inverted index first, so the remaining filters only see
+         * the transactions whose descriptions matched.
+         */
+        public synchronized List<Transaction> search(TransactionQuery query) {
+            List<Transaction> result = new ArrayList<>();
+            if (!segments.isEmpty()) {
+                searchArchive(query, result);
+            }
+            int[] ordinals = descriptionIndex.search(query.getText());
+            List<Transaction> candidates;
+            if (ordinals != null) {
+                candidates = new ArrayList<>(ordinals.length);
+                for (int ordinal : ordinals) {
+                    candidates.add(transactions.get(ordinal));
+                }
+            } else if (query.getAccountNumber() != null) {
+                candidates = transactionsByAccount.getOrDefault(query.getAccountNumber(), Collections.emptyList());
+            } else {
+                candidates = transactions;
+            }
+            for (Transaction transaction : candidates) {
+                if (query.matches(transaction)) {
+                    result.add(transaction);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Searches the segments whose dates overlap the query, skipping the rest
+         * unread. Description words go through each segment's own term index,
+         * so only the records that matched them are decoded.
+         */
+        private void searchArchive(TransactionQuery query, List<Transaction> result) {
+            long from = query.getStartDate() != null ? query.getStartDate().getTime() : Long.MIN_VALUE;
+            long to = query.getEndDate() != null ? query.getEndDate().getTime() : Long.MAX_VALUE;
+            java.util.function.Consumer<Transaction> filter = transaction -> {
+                if (query.matches(transaction)) {
+                    result.add(transaction);
+                }
+            };
+            for (TransactionSegment segment : segments) {
+                if (segment.getMaxTime() < from || segment.getMinTime() >= to) {
+                    continue;
+                }
+                int[] ordinals = segment.searchText(query.getText());
+                if (ordinals != null) {
+                    if (query.getAccountNumber() != null && ordinals.length > 0) {
+                        int[] accountOrdinals = segment.accountOrdinals(query.getAccountNumber());
+                        ordinals = DescriptionIndex.intersect(ordinals, IntList.wrap(accountOrdinals, accountOrdinals.length));
+                    }
+                    segment.readRecords(ordinals, filter);
+                } else if (query.getAccountNumber() != null) {
+                    segment.forAccount(query.getAccountNumber()).forEach(filter);
+                } else {
+                    segment.forRange(from, to, filter);
+                }
+            }
+        }
+
+        public synchronized void openLedgerAccount(String accountNumber, double openingBalance) {
+            ledger.openAccount(accountNumber, openingBalance);
+        }
+
+        /**
+         * Sets the opening balance of the account's ledger so that, with the
+         * postings it already has, it closes at the given balance. Used when a
+         * current balance and the history behind it are loaded separately.
+         */
+        public synchronized void alignLedgerAccount(String accountNumber, double closingBalance) {
+            ledger.alignAccount(accountNumber, closingBalance);
+        }
+
+        /**
+         * Realigns the account's ledger only if it was aligned by an import
+         * before. Live accounts keep their opening balance, so imported history
+         * that does not add up to their balance shows up in reconciliation.
+         */
+        public synchronized boolean realignImportedLedgerAccount(String accountNumber, double closingBalance) {
+            return ledger.realignImportedAccount(accountNumber, closingBalance);
+        }
+
+        /** Archived postings come first, followed by those still held in memory. */
+        public synchronized List<Posting> getPostings(String accountNumber) {
+            if (segments.isEmpty()) {
+                return ledger.getPostings(accountNumber);
+            }
+            List<Posting> postings = archivedPostings(accountNumber, Long.MIN_VALUE, Long.MAX_VALUE);
+            runningBalances(postings, ledger.getOpeningBalance(accountNumber));
+            postings.addAll(ledger.getPostings(accountNumber));
+            return postings;
+        }
+
+        public synchronized double getLedgerBalance(String accountNumber) {
+            return ledger.getBalance(accountNumber);
+        }
+
+        /**
+         * Moments from the archive cutoff onwards are answered by the in-memory
+         * ledger alone, since its running balances already carry the archived
+         * postings. Earlier moments also add up the account's archived postings.
+         */
+        public synchronized double balanceAt(String accountNumber, Date asOf) {
+            long time = asOf.getTime();
+            if (archivedBefore == Long.MIN_VALUE || time >= archivedBefore - 1) {
+                return ledger.balanceAt(accountNumber, asOf);
+            }
+            double balance = ledger.getOpeningBalance(accountNumber) + ledger.netThrough(accountNumber, time);
+            for (Posting posting : archivedPostings(accountNumber, Long.MIN_VALUE, time)) {
+                balance += posting.getAmount();
+            }
+            return balance;
+        }
+
+        public synchronized double getOpeningBalance(String accountNumber) {
+            return ledger.getOpeningBalance(accountNumber);
+        }
+
+        /**
+         * The opening balance plus every archived posting, which is the balance
+         * the in-memory transactions start from.
+         */
+        public synchronized double getCarriedBalance(String accountNumber) {
+            return ledger.getCarriedBalance(accountNumber);
+        }
+
+        /**
+         * Statement totals for the account in a month as numbered by
+         * MonthlyStatement.monthOf, or null if the account has no ledger.
+         * Monthly totals outlive archiving, so only the opening and closing
+         * balances of archived months read the segments.
+         */
+        public synchronized MonthlyStatement getMonthlyStatement(String accountNumber, int month) {
+            MonthlyTotals totals = ledger.getMonthlyTotals(accountNumber, month);
+            if (totals == null) {
+                return null;
+            }
+            long start = MonthlyStatement.startOf(month);
+            long end = MonthlyStatement.startOf(month + 1);
+            return new MonthlyStatement(accountNumber, month, balanceAt(accountNumber, new Date(start - 1)),
+                    balanceAt(accountNumber, new Date(end - 1)), totals);
+        }
+
+        public synchronized List<Posting> getPostings(String accountNumber, int month) {
+            long start = MonthlyStatement.startOf(month);
+            if (start >= archivedBefore) {
+                return ledger.getPostings(accountNumber, month);
+            }
+            long end = MonthlyStatement.startOf(month + 1);
+            List<Posting> postings = archivedPostings(accountNumber, start, end - 1);
+            runningBalances(postings, balanceAt(accountNumber, new Date(start - 1)));
+            postings.addAll(ledger.getPostings(accountNumber, month));
+            return postings;
+        }
+
+        /** The account's archived postings dated from from to to, both inclusive. */
+        private List<Posting> archivedPostings(String accountNumber, long from, long to) {
+            List<Posting> postings = new ArrayList<>();
+            for (TransactionSegment segment : segments) {
+                if (segment.getMaxTime() < from || segment.getMinTime() > to) {
+                    continue;
+                }
+                for (Transaction transaction : segment.forAccount(accountNumber)) {
+                    long time = transaction.getDate().getTime();
+                    if (time < from || time > to) {
+                        continue;
+                    }
+                    if (accountNumber.equals(transaction.getFromAccount())) {
+                        postings.add(new Posting(transaction, accountNumber, -transaction.getAmount()));
+                    }
+                    if (accountNumber.equals(transaction.getToAccount())) {
+                        postings.add(new Posting(transaction, accountNumber, transaction.getCreditAmount()));
+                    }
+                }
+            }
+            return postings;
+        }
+
+        private static void runningBalances(List<Posting> postings, double balance) {
+            for (Posting posting : postings) {
+                balance += posting.getAmount();
+                posting.setBalanceAfter(balance);
+            }
+        }
+
+        /**
+         * Moves transactions dated before the cutoff out of memory into new
+         * segment files in the directory, and returns how many were moved.
+         * The segments are written without holding the manager's lock; only
+         * dropping the archived transactions from memory blocks other callers.
+         * Meant for a manager that keeps whole transactions, not a shard's
+         * partition of a cross-shard transfer.
+         */
+        public int archiveOlderThan(Path directory, Date cutoff) throws IOException {
+            synchronized (archiveLock) {
+                List<Transaction> archived = new ArrayList<>();
+                synchronized (this) {
+                    for (Transaction transaction : transactions) {
+                        if (transaction.getDate().before(cutoff)) {
+                            archived.add(transaction);
+                        }
+                    }
+                }
+                if (archived.isEmpty()) {
+                    return 0;
+                }
+                archived.sort(Comparator.comparing(Transaction::getDate));
+                Files.createDirectories(directory);
+                List<TransactionSegment> written = new ArrayList<>();
+                try {
+                    for (int from = 0; from < archived.size(); from += MAX_SEGMENT_RECORDS) {
+                        Path path = nextSegmentPath(directory);
+                        written.add(TransactionSegment.write(path,
+                                archived.subList(from, Math.min(archived.size(), from + MAX_SEGMENT_RECORDS))));
+                    }
+                } catch (IOException e) {
+                    for (TransactionSegment segment : written) {
+                        Files.deleteIfExists(segment.getPath());
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    dropArchived(archived);
+                    segments.addAll(written);
+                    archivedCount += archived.size();
+                    archivedBefore = Math.max(archivedBefore, cutoff.getTime());
+                }
+                return archived.size();
+            }
+        }
+
+        private void dropArchived(List<Transaction> archived) {
+            Set<Transaction> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            gone.addAll(archived);
+            List<Transaction> remaining = new ArrayList<>(transactions.size() - archived.size());
+            descriptionIndex = new DescriptionIndex();
+            for (Transaction transaction : transactions) {
+                if (!gone.contains(transaction)) {
+                    descriptionIndex.add(remaining.size(), transaction.getDescription());
+                    remaining.add(transaction);
+                }
+            }
+            transactions = remaining;
+            Iterator<List<Transaction>> lists = transactionsByAccount.values().iterator();
+            while (lists.hasNext()) {
+                List<Transaction> list = lists.next();
+                if (list.removeIf(gone::contains)) {
+                    if (list.isEmpty()) {
+                        lists.remove();
+                    } else {
+                        ((ArrayList<Transaction>) list).trimToSize();
+                    }
+                }
+            }
+            ledger.archive(gone);
+        }
+
+        synchronized List<TransactionSegment> getSegments() {
+            return new ArrayList<>(segments);
+        }
+
+        public synchronized int getArchivedCount() {
+            return archivedCount;
+        }
+
+        /**
+         * Read-only view of the transaction log for jobs that scan it in full
+         * and should not pay for the copy made by getAllTransactions(). The view
+         * is bounded by the size at the time of the call, so transactions
+         * appended later are not seen, and archiving swaps in a new log rather
+         * than changing the one viewed.
+         */
+        synchronized List<Transaction> transactionsView() {
+            List<Transaction> log = transactions;
+            int size = log.size();
+            return new AbstractList<Transaction>() {
+                @Override
+                public Transaction get(int index) {
+                    if (index >= size) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                    }
+                    return log.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        /** Copy of the account's transactions still held in memory. */
+        synchronized List<Transaction> inMemoryTransactionsOf(String accountNumber) {
+            List<Transaction> indexed = transactionsByAccount.get(accountNumber);
+            return indexed != null ? new ArrayList<>(indexed) : new ArrayList<>();
+        }
+
+        private void index(Transaction transaction) {
+            transactionsByAccount.computeIfAbsent(transaction.getFromAccount(), k -> new ArrayList<>()).add(transaction);
+            if (!transaction.getToAccount().equals(transaction.getFromAccount())) {
+                transactionsByAccount.computeIfAbsent(transaction.getToAccount(), k -> new ArrayList<>()).add(transaction);
+            }
+        }
+
+        /** Archived transactions come first, followed by those still held in memory. */
+        public synchronized List<Transaction> getTransactionsByAccountNumber(String accountNumber) {
+            long start = System.nanoTime();
+            List<Transaction> result = new ArrayList<>();
+            for (TransactionSegment segment : segments) {
+                result.addAll(segment.forAccount(accountNumber));
+            }
+            List<Transaction> indexed = transactionsByAccount.get(accountNumber);
+            if (indexed != null) {
+                result.addAll(indexed);
+            }
+            Metrics.HISTORY_QUERY.recordSince(start);
+            return result;
+        }
+
+        /** Transactions held in memory; archived ones are reached through forEachTransaction. */
+        public synchronized List<Transaction> getAllTransactions() {
+            return new ArrayList<>(transactions);
+        }
+
+        /** Hands every transaction, archived ones first, to the consumer without collecting them. */
+        public synchronized void forEachTransaction(java.util.function.Consumer<Transaction> consumer) {
+            for (TransactionSegment segment : segments) {
+                segment.forEach(consumer);
+            }
+            transactions.forEach(consumer);
+        }
+
+        public synchronized int getTransactionCount() {
+            return archivedCount + transactions.size();
+        }
+    }
+
+    /**
+     * Double-entry ledger. Every transaction is posted as a debit on the
+     * source account and a credit on the destination account, and each
+     * posting records the running balance of its account, so statements
+     * and balances are read from the postings instead of replaying history.
+     */
+    static class Ledger {
+        private Map<String, AccountLedger> accounts = new HashMap<>();
+
+        public void openAccount(String accountNumber, double openingBalance) {
+            ledgerFor(accountNumber).open(openingBalance);
+        }
+
+        public void alignAccount(String accountNumber, double closingBalance) {
+            ledgerFor(accountNumber).align(closingBalance);
+        }
+
+        public boolean realignImportedAccount(String accountNumber, double closingBalance) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            if (ledger == null || !ledger.imported) {
+                return false;
+            }
+            ledger.align(closingBalance);
+            return true;
+        }
+
+        public void post(Transaction transaction) {
+            ledgerFor(transaction.getFromAccount()).insert(new Posting(transaction, transaction.getFromAccount(), -transaction.getAmount()));
+            ledgerFor(transaction.getToAccount()).insert(new Posting(transaction, transaction.getToAccount(), transaction.getCreditAmount()));
+        }
+
+        /** Posts only the side of the transaction that belongs to the given account. */
+        public void postLeg(Transaction transaction, String accountNumber) {
+            double amount = accountNumber.equals(transaction.getFromAccount()) ? -transaction.getAmount() : transaction.getCreditAmount();
+            ledgerFor(accountNumber).insert(new Posting(transaction, accountNumber, amount));
+        }
+
+        public List<Posting> getPostings(String accountNumber) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? new ArrayList<>(ledger.postings) : new ArrayList<>();
+        }
+
+        public double getBalance(String accountNumber) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.getBalance() : 0;
+        }
+
+        public double getOpeningBalance(String accountNumber) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.openingBalance : 0;
+        }
+
+        public double getCarriedBalance(String accountNumber) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.base() : 0;
+        }
+
+        /** Returns null if the account has no ledger. */
+        public MonthlyTotals getMonthlyTotals(String accountNumber, int month) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.totalsIn(month) : null;
+        }
+
+        /** Net amount of the account's in-memory postings dated at or before the given time. */
+        public double netThrough(String accountNumber, long time) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.balanceAt(time) - ledger.base() : 0;
+        }
+
+        /** Adds postings archived by an earlier run to the account's carried balance. */
+        public void carry(String accountNumber, double archivedNet) {
+            ledgerFor(accountNumber).carry(archivedNet);
+        }
+
+        /** Adds one month's totals of postings archived by an earlier run to the account's statement totals. */
+        public void carryMonth(String accountNumber, MonthlyTotals archived) {
+            ledgerFor(accountNumber).carryMonth(archived);
+        }
+
+        /** Drops the postings of archived transactions, folding their amounts into each account's carried balance. */
+        public void archive(Set<Transaction> archived) {
+            for (AccountLedger ledger : accounts.values()) {
+                ledger.archive(archived);
+            }
+        }
+
+        public List<Posting> getPostings(String accountNumber, int month) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.postingsIn(month) : new ArrayList<>();
+        }
+
+        /**
+         * Returns the ledger balance of the account at the given moment,
+         * including postings dated exactly at that moment.
+         */
+        public double balanceAt(String accountNumber, Date asOf) {
+            AccountLedger ledger = accounts.get(accountNumber);
+            return ledger != null ? ledger.balanceAt(asOf.getTime()) : 0;
+        }
+
+        private AccountLedger ledgerFor(String accountNumber) {
+            return accounts.computeIfAbsent(accountNumber, k -> new AccountLedger());
+        }
+    }
+
+    /**
+     * Postings of a single account kept in date order. Back-dated postings are
+     * inserted in place and the running balances after them are recomputed.
+     * The running balance on each posting acts as a checkpoint, and a primitive
+     * column of posting times lets point-in-time balances be found by binary
+     * search in O(log n).
+     */
+    static class AccountLedger {
+        private double openingBalance;
+        private double archivedNet;
+        private boolean opened;
+        private boolean imported;
+        private List<Posting> postings = new ArrayList<>();
+        private long[] times = new long[8];
+        private TreeMap<Integer, MonthlyTotals> months = new TreeMap<>();
+        private MonthlyTotals lastMonth;
+
+        void open(double openingBalance) {
+            if (opened) {
+                return;
+            }
+            this.openingBalance = openingBalance;
+            this.opened = true;
+            rebalanceFrom(0);
+        }
+
+        void carry(double amount) {
+            archivedNet += amount;
+            rebalanceFrom(0);
+        }
+
+        void carryMonth(MonthlyTotals archived) {
+            months.computeIfAbsent(MonthlyStatement.monthOf(archived.start), MonthlyTotals::new).addAll(archived);
+        }
+
+        void align(double closingBalance) {
+            openingBalance += closingBalance - getBalance();
+            opened = true;
+            imported = true;
+            rebalanceFrom(0);
+        }
+
+        void insert(Posting posting) {
+            long time = posting.getDate().getTime();
+            int size = postings.size();
+            int index = size == 0 || times[size - 1] <= time ? size : upperBound(time);
+            postings.add(index, posting);
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+            }
+            System.arraycopy(times, index, times, index + 1, size - index);
+            times[index] = time;
+            rebalanceFrom(index);
+            totalsFor(time).add(posting.getAmount());
+        }
+
+        /** Totals are additive, so a back-dated posting only touches its own month. */
+        private MonthlyTotals totalsFor(long time) {
+            if (lastMonth == null || time < lastMonth.start || time >= lastMonth.end) {
+                int month = MonthlyStatement.monthOf(time);
+                lastMonth = months.computeIfAbsent(month, MonthlyTotals::new);
+            }
+            return lastMonth;
+        }
+
+        MonthlyTotals totalsIn(int month) {
+            MonthlyTotals totals = months.get(month);
+            return totals != null ? totals : new MonthlyTotals(month);
+        }
+
+        /**
+         * Removes the postings of archived transactions. Archived postings
+         * normally form a prefix, which leaves the remaining running balances
+         * unchanged; otherwise they are recomputed from the new carried balance.
+         */
+        void archive(Set<Transaction> archived) {
+            int kept = 0;
+            boolean reordered = false;
+            for (int i = 0; i < postings.size(); i++) {
+                Posting posting = postings.get(i);
+                if (archived.contains(posting.getTransaction())) {
+                    archivedNet += posting.getAmount();
+                    reordered |= kept > 0;
+                } else {
+                    postings.set(kept, posting);
+                    times[kept++] = times[i];
+                }
+            }
+            if (kept == postings.size()) {
+                return;
+            }
+            postings.subList(kept, postings.size()).clear();
+            ((ArrayList<Posting>) postings).trimToSize();
+            times = Arrays.copyOf(times, Math.max(8, kept));
+            if (reordered || kept == 0) {
+                rebalanceFrom(0);
+            } else {
+                // Re-derive the carried amount from the running balances to avoid accumulating rounding
+                archivedNet = postings.get(0).getBalanceAfter() - postings.get(0).getAmount() - openingBalance;
+            }
+        }
+
+        double base() {
+            return openingBalance + archivedNet;
+        }
+
+        List<Posting> postingsIn(int month) {
+            int from = upperBound(MonthlyStatement.startOf(month) - 1);
+            int to = upperBound(MonthlyStatement.startOf(month + 1) - 1);
+            return new ArrayList<>(postings.subList(from, to));
+        }
+
+        double getBalance() {
+            return postings.isEmpty() ? base() : postings.get(postings.size() - 1).getBalanceAfter();
+        }
+
+        double balanceAt(long time) {
+            int index = upperBound(time);
+            return index == 0 ? base() : postings.get(index - 1).getBalanceAfter();
+        }
+
+        int size() {
+            return postings.size();
+        }
+
+        private int upperBound(long time) {
+            int low = 0;
+            int high = postings.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void rebalanceFrom(int index) {
+            double balance = index == 0 ? base() : postings.get(index - 1).getBalanceAfter();
+            for (int i = index; i < postings.size(); i++) {
+                balance += postings.get(i).getAmount();
+                postings.get(i).setBalanceAfter(balance);
+            }
+        }
+    }
+
+    /**
+     * Aggregates shown on the admin statistics screen, computed from a snapshot
+     * of the managers. Amount totals are in the base currency unless grouped
+     * by currency.
+     */
+    static class SystemStatistics {
+        private int userCount;
+        private int customerCount;
+        private int adminCount;
+        private int accountCount;
+        private int transactionCount;
+        private double totalBalance;
+        private double averageBalance;
+        private Map<String, Double> balanceByCurrency;
+        private Map<String, Long> accountTypeCount;
+        private double totalTransactionAmount;
+        private double averageTransactionAmount;
+        private Map<String, Double> transactionAmountByCurrency;
+        private Transaction largestTransaction;
+        private List<Transaction> recentTransactions;
+
+        static SystemStatistics compute(UserManager userManager, AccountManager accountManager, TransactionManager transactionManager) {
+            SystemStatistics stats = new SystemStatistics();
+            try (AccountSnapshot snapshot = accountManager.snapshot()) {
+                stats.computeBalances(snapshot, accountManager.getFxRates());
+            }
+            List<User> allUsers = userManager.getAllUsers();
+            List<Account> allAccounts = accountManager.getAllAccounts();
+            List<Transaction> allTransactions = transactionManager.getAllTransactions();
+            FxRateTable fxRates = accountManager.getFxRates();
+            
+            stats.userCount = allUsers.size();
+            stats.customerCount = (int) allUsers.stream().filter(u -> u.getRole() == UserRole.CUSTOMER).count();
+            stats.adminCount = (int) allUsers.stream().filter(u -> u.getRole() == UserRole.ADMIN).count();
+            stats.accountCount = allAccounts.size();
+            stats.transactionCount = transactionManager.getTransactionCount();
+            
+            // Get account types
+            stats.accountTypeCount = allAccounts.stream()
+                    .collect(Collectors.groupingBy(Account::getAccountName, Collectors.counting()));
+            
+            // Get transaction statistics; archived segments contribute their stored summaries
+            stats.transactionAmountByCurrency = allTransactions.stream()
+                    .collect(Collectors.groupingBy(Transaction::getCurrency, TreeMap::new, Collectors.summingDouble(Transaction::getAmount)));
+            List<Transaction> largestCandidates = new ArrayList<>(allTransactions);
+            for (TransactionSegment segment : transactionManager.getSegments()) {
+                segment.getAmountByCurrency().forEach((currency, amount) -> stats.transactionAmountByCurrency.merge(currency, amount, Double::sum));
+                largestCandidates.addAll(segment.getLargestByCurrency());
+            }
+            stats.totalTransactionAmount = stats.transactionAmountByCurrency.entrySet().stream()
+                    .mapToDouble(e -> fxRates.toBase(e.getValue(), e.getKey())).sum();
+            stats.averageTransactionAmount = stats.totalTransactionAmount / stats.transactionCount;
+            
+            // Find the largest transaction
+            stats.largestTransaction = largestCandidates.stream()
+                    .max(Comparator.comparing(t -> fxRates.toBase(t.getAmount(), t.getCurrency())))
+                    .orElse(null);
+            
+            // Every transaction newer than the archive cutoff is still in memory,
+            // so the newest few are found there
+            stats.recentTransactions = allTransactions.stream()
+                    .sorted((t1, t2) -> t2.getDate().compareTo(t1.getDate()))
+                    .limit(5)
+                    .collect(Collectors.toList());
+            return stats;
+        }
+
+        /** Balance totals are taken from one snapshot so in-flight transfers cannot skew them. */
+        private void computeBalances(AccountSnapshot snapshot, FxRateTable fxRates) {
+            List<Account> accounts = snapshot.getAccounts();
+            totalBalance = accounts.stream().mapToDouble(a -> fxRates.toBase(snapshot.balanceOf(a), a.getCurrency())).sum();
+            averageBalance = totalBalance / accounts.size();
+            balanceByCurrency = accounts.stream()
+                    .collect(Collectors.groupingBy(Account::getCurrency, TreeMap::new, Collectors.summingDouble(snapshot::balanceOf)));
+        }
+
+        public int getUserCount() {
+            return userCount;
+        }
+
+        public int getCustomerCount() {
+            return customerCount;
+        }
+
+        public int getAdminCount() {
+            return adminCount;
+        }
+
+        public int getAccountCount() {
+            return accountCount;
+        }
+
+        public int getTransactionCount() {
+            return transactionCount;
+        }
+
+        public double getTotalBalance() {
+            return totalBalance;
+        }
+
+        public double getAverageBalance() {
+            return averageBalance;
+        }
+
+        public Map<String, Double> getBalanceByCurrency() {
+            return balanceByCurrency;
+        }
+
+        public Map<String, Long> getAccountTypeCount() {
+            return accountTypeCount;
+        }
+
+        public double getTotalTransactionAmount() {
+            return totalTransactionAmount;
+        }
+
+        public double getAverageTransactionAmount() {
+            return averageTransactionAmount;
+        }
+
+        public Map<String, Double> getTransactionAmountByCurrency() {
+            return transactionAmountByCurrency;
+        }
+
+        public Transaction getLargestTransaction() {
+            return largestTransaction;
+        }
+
+        public List<Transaction> getRecentTransactions() {
+            return recentTransactions;
+        }
+    }
+
+    // ==================== DATA IMPORT/EXPORT ====================
+
+    /**
+     * Streams users, accounts and transactions between the managers and
+     * CSV or binary files. Files ending in ".bin" use the binary format,
+     * everything else is treated as CSV with a header row.
+     */
+    static class DataPorter {
+        private static final int BATCH_SIZE = 65536;
+        private static final int BUFFER_SIZE = 1 << 20;
+        private static final String USER_HEADER = "username,password,firstName,lastName,email,role";
+        private static final String ACCOUNT_HEADER = "accountNumber,accountName,ownerUsername,balance,currency";
+        private static final String TRANSACTION_HEADER = "transactionId,fromAccount,toAccount,amount,description,timestamp,currency,creditAmount";
+
+        private final UserManager userManager;
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager;
+
+        public DataPorter(UserManager userManager, AccountManager accountManager, TransactionManager transactionManager) {
+            this.userManager = userManager;
+            this.accountManager = accountManager;
+            this.transactionManager = transactionManager;
+        }
+
+        // ---------- import ----------
+
+        public TransferReport importUsers(Path path) throws IOException {
+            long start = System.nanoTime();
+            List<User> batch = new ArrayList<>();
+            long[] counts = new long[3];
+            readRecords(path, 6, 6, fields -> {
+                try {
+                    batch.add(new User(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4),
+                            UserRole.valueOf(fields.get(5))));
+                } catch (IllegalArgumentException e) {
+                    counts[2]++;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    flushUsers(batch, counts);
+                }
+            }, counts);
+            flushUsers(batch, counts);
+            return new TransferReport("users", counts[0], counts[1], counts[2], System.nanoTime() - start);
+        }
+
+        /**
+         * The exported balance already includes every exported transaction, so
+         * once the file is read the ledger of each account it created is aligned
+         * to close at that balance rather than opened with it. That holds
+         * whether the history is imported before or after the accounts.
+         */
+        public TransferReport importAccounts(Path path) throws IOException {
+            long start = System.nanoTime();
+            List<Account> batch = new ArrayList<>();
+            List<Account> created = new ArrayList<>();
+            long[] counts = new long[3];
+            readRecords(path, 4, 5, fields -> {
+                try {
+                    String currency = fields.size() > 4 ? fields.get(4) : FxRateTable.BASE_CURRENCY;
+                    // An account in a currency without a rate would make every converted total NaN
+                    if (!accountManager.getFxRates().supports(currency)) {
+                        counts[2]++;
+                        return;
+                    }
+                    batch.add(new Account(fields.get(0), fields.get(1), fields.get(2), Double.parseDouble(fields.get(3)), currency));
+                } catch (NumberFormatException e) {
+                    counts[2]++;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    flushAccounts(batch, created, counts);
+                }
+            }, counts);
+            flushAccounts(batch, created, counts);
+            for (Account account : created) {
+                transactionManager.alignLedgerAccount(account.getAccountNumber(), account.getBalance());
+            }
+            return new TransferReport("accounts", counts[0], counts[1], counts[2], System.nanoTime() - start);
+        }
+
+        /**
+         * Imported history does not move account balances. Accounts that an
+         * earlier import created are realigned to their balance once the whole
+         * file is posted; existing live accounts are not, so a mismatch between
+         * their balance and the imported history is left for reconciliation.
+         */
+        public TransferReport importTransactions(Path path) throws IOException {
+            long start = System.nanoTime();
+            List<Transaction> batch = new ArrayList<>();
+            Set<String> touched = new HashSet<>();
+            long[] counts = new long[3];
+            readRecords(path, 6, 8, fields -> {
+                try {
+                    double amount = Double.parseDouble(fields.get(3));
+                    String currency = fields.size() > 6 ? fields.get(6) : FxRateTable.BASE_CURRENCY;
+                    if (!accountManager.getFxRates().supports(currency)) {
+                        counts[2]++;
+                        return;
+                    }
+                    double creditAmount = fields.size() > 7 ? Double.parseDouble(fields.get(7)) : amount;
+                    batch.add(new Transaction(fields.get(0), fields.get(1), fields.get(2), amount, currency, creditAmount,
+                            fields.get(4), new Date(Long.parseLong(fields.get(5)))));
+                } catch (NumberFormatException e) {
+                    counts[2]++;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    flushTransactions(batch, touched, counts);
+                }
+            }, counts);
+            flushTransactions(batch, touched, counts);
+            for (String accountNumber : touched) {
+                Account account = accountManager.getAccountByNumber(accountNumber);
+                if (account != null) {
+                    transactionManager.realignImportedLedgerAccount(accountNumber, account.getBalance());
+                }
+            }
+            return new TransferReport("transactions", counts[0], counts[1], counts[2], System.nanoTime() - start);
+        }
+
+        private void flushUsers(List<User> batch, long[] counts) {
+            int added = userManager.addUsers(batch);
+            counts[1] += added;
+            counts[2] += batch.size() - added;
+            batch.clear();
+        }
+
+        private void flushAccounts(List<Account> batch, List<Account> created, long[] counts) {
+            int added = accountManager.addAccounts(batch);
+            for (Account account : batch) {
+                if (accountManager.getAccountByNumber(account.getAccountNumber()) == account) {
+                    created.add(account);
+                }
+            }
+            counts[1] += added;
+            counts[2] += batch.size() - added;
+            batch.clear();
+        }
+
+        private void flushTransactions(List<Transaction> batch, Set<String> touched, long[] counts) {
+            transactionManager.addTransactions(batch);
+            for (Transaction transaction : batch) {
+                touched.add(transaction.getFromAccount());
+                touched.add(transaction.getToAccount());
+            }
+            counts[1] += batch.size();
+            batch.clear();
+        }
+
+        /**
+         * Reads every record of the file and hands its fields to the consumer.
+         * Every record is counted in counts[0]; records with fewer than minFields
+         * or more than maxFields fields are counted as rejected in counts[2].
+         * Trailing optional columns let files written before they existed be imported.
+         */
+        private void readRecords(Path path, int minFields, int maxFields, java.util.function.Consumer<List<String>> consumer,
+                                 long[] counts) throws IOException {
+            java.util.function.Consumer<List<String>> checked = fields -> {
+                counts[0]++;
+                if (fields.size() >= minFields && fields.size() <= maxFields) {
+                    consumer.accept(fields);
+                } else {
+                    counts[2]++;
+                }
+            };
+            if (isBinary(path)) {
+                readBinary(path, maxFields, checked);
+            } else {
+                readCsv(path, checked);
+            }
+        }
+
+        private void readCsv(Path path, java.util.function.Consumer<List<String>> consumer) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                CsvParser parser = new CsvParser(consumer);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    parser.feed(buffer);
+                    buffer.clear();
+                }
+                parser.finish();
+            }
+        }
+
+        private void readBinary(Path path, int fieldCount, java.util.function.Consumer<List<String>> consumer) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), BUFFER_SIZE))) {
+                List<String> fields = new ArrayList<>(fieldCount);
+                while (true) {
+                    int count;
+                    try {
+                        count = in.readUnsignedByte();
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    fields.clear();
+                    for (int i = 0; i < count; i++) {
+                        fields.add(in.readUTF());
+                    }
+                    consumer.accept(fields);
+                }
+            }
+        }
+
+        // ---------- export ----------
+
+        public TransferReport exportUsers(Path path) throws IOException {
+            long start = System.nanoTime();
+            List<User> users = userManager.getAllUsers();
+            try (RecordWriter writer = RecordWriter.open(path, USER_HEADER)) {
+                for (User user : users) {
+                    writer.write(user.getUsername(), user.getPassword(), user.getFirstName(), user.getLastName(),
+                            user.getEmail(), user.getRole().name());
+                }
+            }
+            return new TransferReport("users", users.size(), users.size(), 0, System.nanoTime() - start);
+        }
+
+        public TransferReport exportAccounts(Path path) throws IOException {
+            long start = System.nanoTime();
+            List<Account> accounts;
+            try (AccountSnapshot snapshot = accountManager.snapshot();
+                 RecordWriter writer = RecordWriter.open(path, ACCOUNT_HEADER)) {
+                accounts = snapshot.getAccounts();
+                for (Account account : accounts) {
+                    writer.write(account.getAccountNumber(), account.getAccountName(), account.getOwnerUsername(),
+                            Double.toString(snapshot.balanceOf(account)), account.getCurrency());
+                }
+            }
+            return new TransferReport("accounts", accounts.size(), accounts.size(), 0, System.nanoTime() - start);
+        }
+
+        public TransferReport exportTransactions(Path path) throws IOException {
+            long start = System.nanoTime();
+            int[] count = new int[1];
+            try (RecordWriter writer = RecordWriter.open(path, TRANSACTION_HEADER)) {
+                // Streams archived segments too, without loading them into memory
+                transactionManager.forEachTransaction(transaction -> {
+                    try {
+                        writer.write(transaction.getTransactionId(), transaction.getFromAccount(), transaction.getToAccount(),
+                                Double.toString(transaction.getAmount()), transaction.getDescription(),
+                                Long.toString(transaction.getDate().getTime()), transaction.getCurrency(),
+                                Double.toString(transaction.getCreditAmount()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return new TransferReport("transactions", count[0], count[0], 0, System.nanoTime() - start);
+        }
+
+        private static boolean isBinary(Path path) {
+            return path.getFileName().toString().toLowerCase().endsWith(".bin");
+        }
+    }
+
+    /**
+     * Incremental CSV parser working directly on the bytes of a ByteBuffer,
+     * so records can span buffer boundaries without building line strings.
+     * Supports quoted fields with doubled quotes as escapes; the first record
+     * is treated as the header and skipped.
+     */
+    static class CsvParser {
+        private final java.util.function.Consumer<List<String>> consumer;
+        private final List<String> fields = new ArrayList<>();
+        private byte[] field = new byte[256];
+        private int fieldLength = 0;
+        private boolean inQuotes = false;
+        private boolean quotePending = false;
+        private boolean recordStarted = false;
+        private boolean headerSkipped = false;
+
+        CsvParser(java.util.function.Consumer<List<String>> consumer) {
+            this.consumer = consumer;
+        }
+
+        void feed(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (inQuotes) {
+                    if (quotePending) {
+                        quotePending = false;
+                        if (b == '"') {
+                            append(b);
+                            continue;
+                        }
+                        inQuotes = false;
+                    } else if (b == '"') {
+                        quotePending = true;
+                        continue;
+                    } else {
+                        append(b);
+                        continue;
+                    }
+                }
+                switch (b) {
+                    case '"':
+                        inQuotes = true;
+                        recordStarted = true;
+                        break;
+                    case ',':
+                        endField();
+                        recordStarted = true;
+                        break;
+                    case '\n':
+                        endRecord();
+                        break;
+                    case '\r':
+                        break;
+                    default:
+                        append(b);
+                        recordStarted = true;
+                }
+            }
+        }
+
+        void finish() {
+            if (quotePending) {
+                quotePending = false;
+                inQuotes = false;
+            }
+            endRecord();
+        }
+
+        private void append(byte b) {
+            if (fieldLength == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[fieldLength++] = b;
+        }
+
+        private void endField() {
+            fields.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+            fieldLength = 0;
+        }
+
+        private void endRecord() {
+            if (!recordStarted && fieldLength == 0) {
+                return;
+            }
+            endField();
+            if (headerSkipped) {
+                consumer.accept(fields);
+            } else {
+                headerSkipped = true;
+            }
+            fields.clear();
+            recordStarted = false;
+        }
+    }
+
+    /**
+     * Writes records as CSV (quoting only where needed) or, for ".bin" files,
+     * as a field count followed by length-prefixed UTF-8 fields.
+     */
+    static class RecordWriter implements AutoCloseable {
+        private final Writer csv;
+        private final DataOutputStream binary;
+
+        private RecordWriter(Writer csv, DataOutputStream binary) {
+            this.csv = csv;
+            this.binary = binary;
+        }
+
+        static RecordWriter open(Path path, String header) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            if (DataPorter.isBinary(path)) {
+                return new RecordWriter(null, new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel), DataPorter.BUFFER_SIZE)));
+            }
+            Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                    DataPorter.BUFFER_SIZE);
+            writer.write(header);
+            writer.write('\n');
+            return new RecordWriter(writer, null);
+        }
+
+        void write(String... fields) throws IOException {
+            if (binary != null) {
+                binary.writeByte(fields.length);
+                for (String value : fields) {
+                    binary.writeUTF(value);
+                }
+                return;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    csv.write(',');
+                }
+                writeCsvField(fields[i]);
+            }
+            csv.write('\n');
+        }
+
+        private void writeCsvField(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                csv.write(value);
+                return;
+            }
+            csv.write('"');
+            csv.write(value.replace("\"", "\"\""));
+            csv.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (binary != null) {
+                binary.close();
+            } else {
+                csv.close();
+            }
+        }
+    }
+
+    static class TransferReport {
+        private final String entity;
+        private final long rowsRead;
+        private final long rowsAccepted;
+        private final long rowsRejected;
+        private final long elapsedNanos;
+
+        public TransferReport(String entity, long rowsRead, long rowsAccepted, long rowsRejected, long elapsedNanos) {
+            this.entity = entity;
+            this.rowsRead = rowsRead;
+            this.rowsAccepted = rowsAccepted;
+            this.rowsRejected = rowsRejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRowsAccepted() {
+            return rowsAccepted;
+        }
+
+        public long getRowsRejected() {
+            return rowsRejected;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsRead * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d accepted, %d rejected in %.1f ms (%,.0f rows/sec)",
+                    entity, rowsAccepted, rowsRejected, elapsedNanos / 1_000_000.0, getRowsPerSecond());
+        }
+    }
+
+    // ==================== RECONCILIATION ====================
+
+    /**
+     * Checks every account balance against its opening balance plus the net
+     * flow of all transactions. The transaction log is scanned once, split
+     * into slices that are summed in parallel into one shared array of cents,
+     * so memory stays constant per account however many slices there are.
+     * Transfers commit balances before they reach the log, so an account that
+     * does not add up is re-checked on its own before it is reported.
+     */
+    static class ReconciliationJob {
+        private static final int RECHECK_ATTEMPTS = 3;
+        private static final long RECHECK_PAUSE_MILLIS = 20;
+
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager;
+        private volatile ReconciliationReport lastReport;
+        private ScheduledExecutorService scheduler;
+
+        public ReconciliationJob(AccountManager accountManager, TransactionManager transactionManager) {
+            this.accountManager = accountManager;
+            this.transactionManager = transactionManager;
+        }
+
+        public ReconciliationReport run() {
+            long start = System.nanoTime();
+            List<Account> accounts = accountManager.getAllAccounts();
+            Map<String, Integer> accountIds = new HashMap<>(accounts.size() * 2);
+            for (int i = 0; i < accounts.size(); i++) {
+                accountIds.put(accounts.get(i).getAccountNumber(), i);
+            }
+
+            // Read the log, the carried balances and a snapshot of the account
+            // balances under one lock, so archiving cannot move transactions from
+            // one into the other between the reads
+            List<Transaction> transactions;
+            double[] carriedBalances = new double[accounts.size()];
+            double[] balances = new double[accounts.size()];
+            synchronized (transactionManager) {
+                transactions = transactionManager.transactionsView();
+                try (AccountSnapshot snapshot = accountManager.snapshot()) {
+                    for (int i = 0; i < accounts.size(); i++) {
+                        carriedBalances[i] = transactionManager.getCarriedBalance(accounts.get(i).getAccountNumber());
+                        balances[i] = snapshot.balanceOf(accounts.get(i));
+                    }
+                }
+            }
+            int size = transactions.size();
+            int slices = Math.max(1, Math.min(size / 10_000, Runtime.getRuntime().availableProcessors() * 4));
+            // Slot accounts.size() counts postings to accounts that do not exist
+            AtomicLongArray netFlowCents = new AtomicLongArray(accounts.size() + 1);
+            IntStream.range(0, slices).parallel()
+                    .forEach(slice -> sumSlice(transactions, accountIds, netFlowCents,
+                            (int) ((long) size * slice / slices), (int) ((long) size * (slice + 1) / slices)));
+
+            List<Discrepancy> discrepancies = new ArrayList<>();
+            for (int i = 0; i < accounts.size(); i++) {
+                long expectedCents = toCents(carriedBalances[i]) + netFlowCents.get(i);
+                if (expectedCents != toCents(balances[i])) {
+                    Discrepancy discrepancy = recheck(accounts.get(i));
+                    if (discrepancy != null) {
+                        discrepancies.add(discrepancy);
+                    }
+                }
+            }
+
+            ReconciliationReport report = new ReconciliationReport(new Date(), accounts.size(), size,
+                    netFlowCents.get(accounts.size()), discrepancies, System.nanoTime() - start);
+            lastReport = report;
+            Metrics.RECONCILIATION_REPORT.recordSince(start);
+            return report;
+        }
+
+        public ReconciliationReport getLastReport() {
+            return lastReport;
+        }
+
+        /**
+         * Runs the job every day at the given hour on a daemon thread.
+         */
+        public synchronized void scheduleNightly(int hourOfDay) {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "nightly-reconciliation");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Calendar next = Calendar.getInstance();
+            next.set(Calendar.HOUR_OF_DAY, hourOfDay);
+            next.set(Calendar.MINUTE, 0);
+            next.set(Calendar.SECOND, 0);
+            next.set(Calendar.MILLISECOND, 0);
+            if (!next.after(Calendar.getInstance())) {
+                next.add(Calendar.DAY_OF_MONTH, 1);
+            }
+            long delay = next.getTimeInMillis() - System.currentTimeMillis();
+            scheduler.scheduleAtFixedRate(this::run, delay, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Compares one account against its own transactions a few times, letting
+         * transfers that were between their balance commit and their log entry
+         * finish. Returns null once the account adds up, or the last mismatch.
+         */
+        private Discrepancy recheck(Account account) {
+            String accountNumber = account.getAccountNumber();
+            long expectedCents = 0;
+            long actualCents = 0;
+            for (int attempt = 0; attempt < RECHECK_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    try {
+                        Thread.sleep(RECHECK_PAUSE_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                synchronized (transactionManager) {
+                    expectedCents = toCents(transactionManager.getCarriedBalance(accountNumber));
+                    for (Transaction transaction : transactionManager.inMemoryTransactionsOf(accountNumber)) {
+                        if (accountNumber.equals(transaction.getFromAccount())) {
+                            expectedCents -= toCents(transaction.getAmount());
+                        }
+                        if (accountNumber.equals(transaction.getToAccount())) {
+                            expectedCents += toCents(transaction.getCreditAmount());
+                        }
+                    }
+                    actualCents = toCents(account.getBalance());
+                }
+                if (expectedCents == actualCents) {
+                    return null;
+                }
+            }
+            return new Discrepancy(accountNumber, expectedCents / 100.0, actualCents / 100.0);
+        }
+
+        private static void sumSlice(List<Transaction> transactions, Map<String, Integer> accountIds,
+                                     AtomicLongArray netFlowCents, int from, int to) {
+            int unknown = netFlowCents.length() - 1;
+            long unknownPostings = 0;
+            for (int i = from; i < to; i++) {
+                Transaction transaction = transactions.get(i);
+                Integer fromId = accountIds.get(transaction.getFromAccount());
+                Integer toId = accountIds.get(transaction.getToAccount());
+                if (fromId != null) {
+                    netFlowCents.addAndGet(fromId, -toCents(transaction.getAmount()));
+                } else {
+                    unknownPostings++;
+                }
+                if (toId != null) {
+                    netFlowCents.addAndGet(toId, toCents(transaction.getCreditAmount()));
+                } else {
+                    unknownPostings++;
+                }
+            }
+            netFlowCents.addAndGet(unknown, unknownPostings);
+        }
+
+        private static long toCents(double amount) {
+            return Math.round(amount * 100);
+        }
+    }
+
+    static class Discrepancy {
+        private final String accountNumber;
+        private final double expectedBalance;
+        private final double actualBalance;
+
+        public Discrepancy(String accountNumber, double expectedBalance, double actualBalance) {
+            this.accountNumber = accountNumber;
+            this.expectedBalance = expectedBalance;
+            this.actualBalance = actualBalance;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public double getExpectedBalance() {
+            return expectedBalance;
+        }
+
+        public double getActualBalance() {
+            return actualBalance;
+        }
+
+        public double getDifference() {
+            return actualBalance - expectedBalance;
+        }
+    }
+
+    static class ReconciliationReport {
+        private final Date runAt;
+        private final int accountsChecked;
+        private final long transactionsScanned;
+        private final long unknownAccountPostings;
+        private final List<Discrepancy> discrepancies;
+        private final long elapsedNanos;
+
+        public ReconciliationReport(Date runAt, int accountsChecked, long transactionsScanned, long unknownAccountPostings,
+                                    List<Discrepancy> discrepancies, long elapsedNanos) {
+            this.runAt = runAt;
+            this.accountsChecked = accountsChecked;
+            this.transactionsScanned = transactionsScanned;
+            this.unknownAccountPostings = unknownAccountPostings;
+            this.discrepancies = discrepancies;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Date getRunAt() {
+            return runAt;
+        }
+
+        public int getAccountsChecked() {
+            return accountsChecked;
+        }
+
+        public long getTransactionsScanned() {
+            return transactionsScanned;
+        }
+
+        public long getUnknownAccountPostings() {
+            return unknownAccountPostings;
+        }
+
+        public List<Discrepancy> getDiscrepancies() {
+            return new ArrayList<>(discrepancies);
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    // ==================== STATEMENTS ====================
+
+    /**
+     * Posting counts and totals for one account in one month, kept up to date by
+     * the ledger as postings arrive. Months are numbered year * 12 + month - 1.
+     */
+    static class MonthlyTotals {
+        private final long start;
+        private final long end;
+        private double totalIn;
+        private double totalOut;
+        private int countIn;
+        private int countOut;
+
+        MonthlyTotals(int month) {
+            this.start = MonthlyStatement.startOf(month);
+            this.end = MonthlyStatement.startOf(month + 1);
+        }
+
+        void add(double amount) {
+            if (amount < 0) {
+                totalOut -= amount;
+                countOut++;
+            } else {
+                totalIn += amount;
+                countIn++;
+            }
+        }
+
+        void addAll(MonthlyTotals other) {
+            totalIn += other.totalIn;
+            totalOut += other.totalOut;
+            countIn += other.countIn;
+            countOut += other.countOut;
+        }
+    }
+
+    static class MonthlyStatement {
+        private final String accountNumber;
+        private final int month;
+        private final double openingBalance;
+        private final double closingBalance;
+        private final double totalIn;
+        private final double totalOut;
+        private final int countIn;
+        private final int countOut;
+
+        MonthlyStatement(String accountNumber, int month, double openingBalance, double closingBalance, MonthlyTotals totals) {
+            this.accountNumber = accountNumber;
+            this.month = month;
+            this.openingBalance = openingBalance;
+            this.closingBalance = closingBalance;
+            this.totalIn = totals.totalIn;
+            this.totalOut = totals.totalOut;
+            this.countIn = totals.countIn;
+            this.countOut = totals.countOut;
+        }
+
+        static int monthOf(long time) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(time);
+            return cal.get(Calendar.YEAR) * 12 + cal.get(Calendar.MONTH);
+        }
+
+        static long startOf(int month) {
+            Calendar cal = Calendar.getInstance();
+            cal.clear();
+            cal.set(month / 12, month % 12, 1);
+            return cal.getTimeInMillis();
+        }
+
+        static String format(int month) {
+            return String.format("%04d-%02d", month / 12, month % 12 + 1);
+        }
+
+        /** Parses yyyy-MM, returning -1 if the text is not a valid month. */
+        static int parse(String text) {
+            String[] parts = text.trim().split("-");
+            if (parts.length != 2) {
+                return -1;
+            }
+            try {
+                int year = Integer.parseInt(parts[0]);
+                int month = Integer.parseInt(parts[1]);
+                return year > 0 && month >= 1 && month <= 12 ? year * 12 + month - 1 : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public int getMonth() {
+            return month;
+        }
+
+        public double getOpeningBalance() {
+            return openingBalance;
+        }
+
+        public double getClosingBalance() {
+            return closingBalance;
+        }
+
+        public double getTotalIn() {
+            return totalIn;
+        }
+
+        public double getTotalOut() {
+            return totalOut;
+        }
+
+        public int getCountIn() {
+            return countIn;
+        }
+
+        public int getCountOut() {
+            return countOut;
+        }
+    }
+
+    /**
+     * Writes the statements of every account for a month into one file. The
+     * file is written one account at a time, so memory use is bounded by the
+     * busiest account's postings for the month rather than by the whole ledger.
+     * <p>
+     * Each account gets a summary record (S, account, owner, currency, opening,
+     * closing, total in, total out, count in, count out) followed by one record
+     * per posting (P, time in millis, transaction id, counterparty, amount,
+     * balance after). Files ending in .bin use the compact binary record format
+     * of the bulk exporter; anything else is written as CSV.
+     */
+    static class StatementJob {
+        private static final String HEADER = "record,field1,field2,field3,field4,field5,field6,field7,field8,field9";
+
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager;
+        private volatile TransferReport lastRun;
+        private ScheduledExecutorService scheduler;
+
+        public StatementJob(AccountManager accountManager, TransactionManager transactionManager) {
+            this.accountManager = accountManager;
+            this.transactionManager = transactionManager;
+        }
+
+        public TransferReport getLastRun() {
+            return lastRun;
+        }
+
+        static Path defaultPath(Path directory, int month) {
+            return directory.resolve("statements-" + MonthlyStatement.format(month) + ".bin");
+        }
+
+        public TransferReport run(int month, Path path) throws IOException {
+            long start = System.nanoTime();
+            int statements = 0;
+            long records = 0;
+            try (RecordWriter writer = RecordWriter.open(path, HEADER)) {
+                for (Account account : accountManager.getAllAccounts()) {
+                    String accountNumber = account.getAccountNumber();
+                    MonthlyStatement statement = transactionManager.getMonthlyStatement(accountNumber, month);
+                    if (statement == null) {
+                        continue;
+                    }
+                    writer.write("S", accountNumber, account.getOwnerUsername(), account.getCurrency(),
+                            Double.toString(statement.getOpeningBalance()), Double.toString(statement.getClosingBalance()),
+                            Double.toString(statement.getTotalIn()), Double.toString(statement.getTotalOut()),
+                            Integer.toString(statement.getCountIn()), Integer.toString(statement.getCountOut()));
+                    records++;
+                    if (statement.getCountIn() + statement.getCountOut() > 0) {
+                        for (Posting posting : transactionManager.getPostings(accountNumber, month)) {
+                            writer.write("P", Long.toString(posting.getDate().getTime()), posting.getTransaction().getTransactionId(),
+                                    posting.getCounterpartyAccount(), Double.toString(posting.getAmount()),
+                                    Double.toString(posting.getBalanceAfter()));
+                            records++;
+                        }
+                    }
+                    statements++;
+                }
+            }
+            TransferReport report = new TransferReport("statements", records, statements, 0, System.nanoTime() - start);
+            lastRun = report;
+            return report;
+        }
+
+        /**
+         * Closes each month shortly after it ends by writing its statements to
+         * the directory, named as by defaultPath.
+         */
+        public synchronized void scheduleMonthly(Path directory) {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "monthly-statements");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduleNextClose(directory);
+        }
+
+        private void scheduleNextClose(Path directory) {
+            int closingMonth = MonthlyStatement.monthOf(System.currentTimeMillis());
+            long delay = MonthlyStatement.startOf(closingMonth + 1) + TimeUnit.MINUTES.toMillis(10) - System.currentTimeMillis();
+            scheduler.schedule(() -> {
+                try {
+                    run(closingMonth, defaultPath(directory, closingMonth));
+                } catch (IOException e) {
+                    System.err.println("Monthly statements for " + MonthlyStatement.format(closingMonth) + " failed: " + e.getMessage());
+                }
+                scheduleNextClose(directory);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ==================== FOREIGN EXCHANGE ====================
+
+    /**
+     * Exchange rates quoted as units of the base currency per unit of each
+     * currency. The rates live in an immutable map behind a volatile reference:
+     * readers on the transfer path take a single lock-free read, while a refresh
+     * builds a new map and swaps it in atomically.
+     */
+    static class FxRateTable {
+        static final String BASE_CURRENCY = "USD";
+
+        private volatile Map<String, Double> rates;
+        private ScheduledExecutorService watcher;
+
+        public FxRateTable() {
+            Map<String, Double> defaults = new HashMap<>();
+            defaults.put(BASE_CURRENCY, 1.0);
+            defaults.put("EUR", 1.08);
+            defaults.put("GBP", 1.27);
+            rates = Collections.unmodifiableMap(defaults);
+        }
+
+        /**
+         * Converts amount from one currency to another.
+         * Returns NaN if either currency has no rate.
+         */
+        public double convert(double amount, String fromCurrency, String toCurrency) {
+            if (fromCurrency.equals(toCurrency)) {
+                return amount;
+            }
+            Map<String, Double> snapshot = rates;
+            Double fromRate = snapshot.get(fromCurrency);
+            Double toRate = snapshot.get(toCurrency);
+            if (fromRate == null || toRate == null) {
+                return Double.NaN;
+            }
+            return Math.round(amount * fromRate / toRate * 100) / 100.0;
+        }
+
+        public double toBase(double amount, String currency) {
+            return convert(amount, currency, BASE_CURRENCY);
+        }
+
+        public boolean supports(String currency) {
+            return rates.containsKey(currency);
+        }
+
+        public List<String> getCurrencies() {
+            List<String> currencies = new ArrayList<>(rates.keySet());
+            Collections.sort(currencies);
+            return currencies;
+        }
+
+        public Map<String, Double> getRates() {
+            return new TreeMap<>(rates);
+        }
+
+        /**
+         * Updates the rate table with the rates in the file, one "CODE,rate"
+         * line per currency. Currencies missing from the file keep their current
+         * rate, so accounts held in them never lose their conversion. The base
+         * currency is always kept at 1. Returns the number of rates loaded.
+         * Refreshes are serialized so that a watched file and a manual refresh
+         * landing together cannot drop each other's rates.
+         */
+        public int refreshFrom(Path path) throws IOException {
+            Map<String, Double> fileRates = new HashMap<>();
+            for (String line : java.nio.file.Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(",");
+                if (parts.length != 2 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    double rate = Double.parseDouble(parts[1].trim());
+                    if (rate > 0) {
+                        fileRates.put(parts[0].trim().toUpperCase(), rate);
+                    }
+                } catch (NumberFormatException e) {
+                    // Skip malformed lines such as a header row
+                }
+            }
+            synchronized (this) {
+                Map<String, Double> loaded = new HashMap<>(rates);
+                loaded.putAll(fileRates);
+                loaded.put(BASE_CURRENCY, 1.0);
+                rates = Collections.unmodifiableMap(loaded);
+            }
+            return fileRates.size();
+        }
+
+        /**
+         * Polls the rate file on a daemon thread and reloads it whenever its
+         * modification time changes.
+         */
+        public synchronized void watch(Path path, int intervalSeconds) {
+            if (watcher != null) {
+                return;
+            }
+            watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fx-rate-feed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long[] lastModified = {-1};
+            watcher.scheduleWithFixedDelay(() -> {
+                try {
+                    if (java.nio.file.Files.exists(path)) {
+                        long modified = java.nio.file.Files.getLastModifiedTime(path).toMillis();
+                        if (modified != lastModified[0]) {
+                            refreshFrom(path);
+                            lastModified[0] = modified;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Keep the current rates until the feed is readable again
+                }
+            }, 0, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // ==================== SEARCH ====================
+
+    /**
+     * Inverted index from description words to the ordinals of the transactions
+     * containing them. Terms are kept sorted so prefix queries are a range scan,
+     * and each posting list is an ascending primitive int list because
+     * transactions are only ever appended.
+     */
+    static class DescriptionIndex {
+        private final TreeMap<String, IntList> postings = new TreeMap<>();
+
+        void add(int ordinal, String description) {
+            for (String term : tokenize(description)) {
+                IntList list = postings.computeIfAbsent(term, k -> new IntList());
+                if (list.size() == 0 || list.last() != ordinal) {
+                    list.add(ordinal);
+                }
+            }
+        }
+
+        /**
+         * Returns the ascending ordinals of transactions containing every word of
+         * the query, or null if the query is null or blank. A query of only
+         * punctuation has no searchable words and matches nothing. A word ending
+         * in '*' matches any term starting with it.
+         */
+        int[] search(String query) {
+            return search(query, (term, prefix) -> prefix ? prefixMatches(term) : exactMatches(term));
+        }
+
+        /**
+         * Evaluates the query against any index, given a lookup from a term to
+         * its ascending postings, or to the merged postings of every term
+         * starting with it when the flag is set.
+         */
+        static int[] search(String query, java.util.function.BiFunction<String, Boolean, IntList> lookup) {
+            if (query == null || query.trim().isEmpty()) {
+                return null;
+            }
+            List<IntList> matches = new ArrayList<>();
+            for (String word : query.trim().split("\\s+")) {
+                boolean prefix = word.endsWith("*");
+                List<String> terms = tokenize(word);
+                for (int i = 0; i < terms.size(); i++) {
+                    matches.add(lookup.apply(terms.get(i), prefix && i == terms.size() - 1));
+                }
+            }
+            if (matches.isEmpty()) {
+                return new int[0];
+            }
+            matches.sort(Comparator.comparingInt(IntList::size));
+            int[] result = matches.get(0).toArray();
+            for (int i = 1; i < matches.size() && result.length > 0; i++) {
+                result = intersect(result, matches.get(i));
+            }
+            return result;
+        }
+
+        private IntList exactMatches(String term) {
+            IntList list = postings.get(term);
+            return list != null ? list : new IntList();
+        }
+
+        private IntList prefixMatches(String prefix) {
+            return union(postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        }
+
+        /** Merges ascending posting lists into one ascending list without duplicates. */
+        static IntList union(Collection<IntList> lists) {
+            if (lists.size() == 1) {
+                return lists.iterator().next();
+            }
+            IntList merged = new IntList();
+            for (IntList list : lists) {
+                merged.addAll(list);
+            }
+            int[] ordinals = merged.toArray();
+            Arrays.sort(ordinals);
+            int unique = 0;
+            for (int i = 0; i < ordinals.length; i++) {
+                if (i == 0 || ordinals[i] != ordinals[i - 1]) {
+                    ordinals[unique++] = ordinals[i];
+                }
+            }
+            return IntList.wrap(ordinals, unique);
+        }
+
+        /**
+         * Intersects a short sorted array with a longer posting list by galloping
+         * through the longer one, so a rare term combined with a common one costs
+         * O(m log(n / m)) rather than a scan of the common term's postings.
+         */
+        static int[] intersect(int[] small, IntList large) {
+            int[] result = new int[small.length];
+            int count = 0;
+            int position = 0;
+            for (int value : small) {
+                int step = 1;
+                int high = position;
+                while (high < large.size() && large.get(high) < value) {
+                    position = high + 1;
+                    high += step;
+                    step <<= 1;
+                }
+                high = Math.min(high, large.size() - 1);
+                while (position <= high) {
+                    int mid = (position + high) >>> 1;
+                    if (large.get(mid) < value) {
+                        position = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                if (position == large.size()) {
+                    break;
+                }
+                if (large.get(position) == value) {
+                    result[count++] = value;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        static List<String> tokenize(String text) {
+            List<String> terms = new ArrayList<>();
+            if (text == null) {
+                return terms;
+            }
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    terms.add(text.substring(start, i).toLowerCase());
+                    start = -1;
+                }
+            }
+            return terms;
+        }
+
+    }
+
+    /**
+     * Growable list of primitive ints, used for posting lists.
+     */
+    static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        static IntList wrap(int[] values, int size) {
+            IntList list = new IntList();
+            list.values = values;
+            list.size = size;
+            return list;
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        /**
+         * Inserts the value into this ascending list unless it is already present.
+         */
+        void insertSorted(int value) {
+            if (size == 0 || values[size - 1] < value) {
+                add(value);
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            add(0);
+            System.arraycopy(values, index, values, index + 1, size - 1 - index);
+            values[index] = value;
+        }
+
+        /**
+         * Removes the value from this ascending list if it is present.
+         */
+        void removeSorted(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int last() {
+            return values[size - 1];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Search criteria for transactions. Only the criteria that are set are applied;
+     * amounts are compared in the base currency when FX rates are supplied.
+     */
+    static class TransactionQuery {
+        private String text;
+        private String accountNumber;
+        private Date startDate;
+        private Date endDate;
+        private Double minAmount;
+        private Double maxAmount;
+        private FxRateTable fxRates;
+
+        public TransactionQuery(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public void setAccountNumber(String accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+
+        public Date getStartDate() {
+            return startDate;
+        }
+
+        public Date getEndDate() {
+            return endDate;
+        }
+
+        /** Inclusive lower bound on the transaction date. */
+        public void setStartDate(Date startDate) {
+            this.startDate = startDate;
+        }
+
+        /** Exclusive upper bound on the transaction date. */
+        public void setEndDate(Date endDate) {
+            this.endDate = endDate;
+        }
+
+        public void setMinAmount(Double minAmount) {
+            this.minAmount = minAmount;
+        }
+
+        public void setMaxAmount(Double maxAmount) {
+            this.maxAmount = maxAmount;
+        }
+
+        public void setFxRates(FxRateTable fxRates) {
+            this.fxRates = fxRates;
+        }
+
+        public boolean matches(Transaction transaction) {
+            if (accountNumber != null && !accountNumber.equals(transaction.getFromAccount())
+                    && !accountNumber.equals(transaction.getToAccount())) {
+                return false;
+            }
+            if (startDate != null && transaction.getDate().before(startDate)) {
+                return false;
+            }
+            if (endDate != null && !transaction.getDate().before(endDate)) {
+                return false;
+            }
+            if (minAmount != null || maxAmount != null) {
+                double amount = fxRates != null ? fxRates.toBase(transaction.getAmount(), transaction.getCurrency()) : transaction.getAmount();
+                if (minAmount != null && amount < minAmount) {
+                    return false;
+                }
+                if (maxAmount != null && amount > maxAmount) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // ==================== USER DIRECTORY ====================
+
+    /**
+     * Search index over the username, first name, last name and email of every
+     * user. Users get dense ids, each distinct term maps to an ascending list of
+     * user ids, and per-word matches are combined as bitsets. Terms are kept in a
+     * sorted map, which serves prefix lookups directly and is walked like a trie
+     * for fuzzy lookups, pruning every prefix that is already too far from the
+     * query word.
+     */
+    static class UserDirectory {
+        private final List<User> usersById = new ArrayList<>();
+        private final Map<String, Integer> idsByUsername = new HashMap<>();
+        private final TreeMap<String, Integer> termIds = new TreeMap<>();
+        private final List<IntList> usersByTerm = new ArrayList<>();
+
+        void add(User user) {
+            Integer id = idsByUsername.get(user.getUsername());
+            if (id == null) {
+                id = usersById.size();
+                usersById.add(user);
+                idsByUsername.put(user.getUsername(), id);
+            }
+            for (String term : termsOf(user)) {
+                Integer termId = termIds.get(term);
+                if (termId == null) {
+                    termId = usersByTerm.size();
+                    termIds.put(term, termId);
+                    usersByTerm.add(new IntList());
+                }
+                usersByTerm.get(termId).insertSorted(id);
+            }
+        }
+
+        void remove(User user) {
+            Integer id = idsByUsername.get(user.getUsername());
+            if (id == null) {
+                return;
+            }
+            for (String term : termsOf(user)) {
+                Integer termId = termIds.get(term);
+                if (termId != null) {
+                    usersByTerm.get(termId).removeSorted(id);
+                }
+            }
+        }
+
+        /**
+         * Returns one page of the users matching every word of the query, in
+         * registration order, together with the total number of matches.
+         */
+        Page search(String query, boolean fuzzy, int page, int pageSize) {
+            BitSet result = null;
+            for (String word : query.trim().toLowerCase().split("\\s+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                BitSet matches = new BitSet(usersById.size());
+                for (int termId : termIds.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                    addUsers(matches, termId);
+                }
+                if (fuzzy && matches.isEmpty()) {
+                    for (int termId : similarTerms(word)) {
+                        addUsers(matches, termId);
+                    }
+                }
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.and(matches);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            if (result == null) {
+                return new Page(new ArrayList<>(), 0);
+            }
+
+            List<User> users = new ArrayList<>(pageSize);
+            int skip = page * pageSize;
+            for (int id = result.nextSetBit(0); id >= 0 && users.size() < pageSize; id = result.nextSetBit(id + 1)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    users.add(usersById.get(id));
+                }
+            }
+            return new Page(users, result.cardinality());
+        }
+
+        private void addUsers(BitSet matches, int termId) {
+            IntList users = usersByTerm.get(termId);
+            for (int i = 0; i < users.size(); i++) {
+                matches.set(users.get(i));
+            }
+        }
+
+        /**
+         * Returns the ids of terms that start with the word give or take a few
+         * typos: some prefix of the term is within the allowed number of edits,
+         * counting insertions, deletions, substitutions and adjacent
+         * transpositions as one edit each.
+         */
+        private List<Integer> similarTerms(String word) {
+            int maxEdits = word.length() <= 4 ? 1 : 2;
+            List<Integer> similar = new ArrayList<>();
+            if (word.length() <= maxEdits || termIds.isEmpty()) {
+                return similar;
+            }
+            int columns = word.length();
+            int maxDepth = columns + maxEdits;
+            // rows[d][j] is the edit distance between the first d characters of the
+            // term and the first j characters of the word
+            int[][] rows = new int[maxDepth + 1][columns + 1];
+            for (int j = 0; j <= columns; j++) {
+                rows[0][j] = j;
+            }
+            int[] rowMin = new int[maxDepth + 1];
+
+            String computed = "";
+            String key = termIds.firstKey();
+            while (key != null) {
+                int depth = 0;
+                int limit = Math.min(computed.length(), key.length());
+                while (depth < limit && computed.charAt(depth) == key.charAt(depth)) {
+                    depth++;
+                }
+                boolean matched = false;
+                boolean pruned = false;
+                while (depth < Math.min(key.length(), maxDepth) && !matched && !pruned) {
+                    depth++;
+                    int[] row = rows[depth];
+                    int[] above = rows[depth - 1];
+                    char c = key.charAt(depth - 1);
+                    row[0] = depth;
+                    rowMin[depth] = depth;
+                    for (int j = 1; j <= columns; j++) {
+                        int cost = word.charAt(j - 1) == c ? 0 : 1;
+                        int value = Math.min(Math.min(row[j - 1] + 1, above[j] + 1), above[j - 1] + cost);
+                        if (depth > 1 && j > 1 && word.charAt(j - 1) == key.charAt(depth - 2) && word.charAt(j - 2) == c) {
+                            value = Math.min(value, rows[depth - 2][j - 2] + 1);
+                        }
+                        row[j] = value;
+                        rowMin[depth] = Math.min(rowMin[depth], value);
+                    }
+                    matched = row[columns] <= maxEdits;
+                    // Transpositions reach back two rows, so both must be out of range
+                    pruned = rowMin[depth] > maxEdits && (depth == 1 || rowMin[depth - 1] > maxEdits);
+                }
+                String prefix = key.substring(0, depth);
+                computed = prefix;
+                if (matched) {
+                    // Every term sharing this prefix starts with the word give or take the typos
+                    for (int termId : termIds.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                        if (usersByTerm.get(termId).size() > 0) {
+                            similar.add(termId);
+                        }
+                    }
+                }
+                if (matched || pruned || depth == maxDepth) {
+                    key = termIds.higherKey(prefix + Character.MAX_VALUE);
+                } else {
+                    key = termIds.higherKey(key);
+                }
+            }
+            return similar;
+        }
+
+        /**
+         * Indexes each field whole and also each of its words, split on
+         * whitespace, '.' and '@', so a surname inside a full name or the domain
+         * of an email can be found by prefix as well. An email domain is also
+         * indexed from each of its dots, so "example.com" finds "bank.example.com".
+         */
+        private static Set<String> termsOf(User user) {
+            Set<String> terms = new HashSet<>();
+            for (String field : new String[]{user.getUsername(), user.getFirstName(), user.getLastName(), user.getEmail()}) {
+                if (field == null || field.trim().isEmpty()) {
+                    continue;
+                }
+                String value = field.trim().toLowerCase();
+                terms.add(value);
+                int at = value.lastIndexOf('@');
+                for (int dot = at; dot >= 0 && dot < value.length() - 1; dot = value.indexOf('.', dot + 1)) {
+                    terms.add(value.substring(dot + 1));
+                }
+                for (String word : value.split("[\\s.@]+")) {
+                    if (!word.isEmpty()) {
+                        terms.add(word);
+                    }
+                }
+            }
+            return terms;
+        }
+
+        static class Page {
+            private final List<User> users;
+            private final int totalMatches;
+
+            Page(List<User> users, int totalMatches) {
+                this.users = users;
+                this.totalMatches = totalMatches;
+            }
+
+            public List<User> getUsers() {
+                return users;
+            }
+
+            public int getTotalMatches() {
+                return totalMatches;
+            }
+        }
+    }
+
+    // ==================== LOGIN THROTTLING ====================
+
+    /**
+     * Throttles failed logins per username and per source. Failures are counted
+     * in a sliding 15 minute window of three-minute buckets, each a count-min
+     * sketch, so memory is fixed however many distinct usernames are attacked. After a few
+     * free failures each further one doubles the wait before the next attempt,
+     * and past the lockout threshold attempts are refused until old failures
+     * slide out of the window.
+     * <p>
+     * Sketch estimates can only be too high, never too low: an attacker cannot
+     * slip under the limits, but with far more attacked keys than sketch cells
+     * an unrelated username can share cells with attacked ones and be slowed
+     * down too. Counters use conservative update, which only raises a key's
+     * lowest cells, to keep that overestimate small. Successful logins do not
+     * clear earlier failures.
+     */
+    static class LoginThrottle {
+        /** Returned by retryAfterMillis while a key is locked out. */
+        static final long LOCKED = Long.MAX_VALUE;
+
+        private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(3);
+        private static final int WINDOW_BUCKETS = 5;
+        private static final long BASE_DELAY_MILLIS = 1_000;
+        private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+        private final FailureSketch usernames;
+        private final FailureSketch sources;
+
+        /** Sized for millions of attacked usernames and sources in about 18 MB. */
+        LoginThrottle() {
+            this(1 << 18, 1 << 18);
+        }
+
+        /** Widths are rounded up to a power of two cells per sketch row. */
+        LoginThrottle(int usernameWidth, int sourceWidth) {
+            long seed = new Random().nextLong();
+            usernames = new FailureSketch(usernameWidth, seed, 3, 10);
+            sources = new FailureSketch(sourceWidth, seed * 31 + 17, 20, 100);
+        }
+
+        /**
+         * How long the caller must wait before the next attempt for this
+         * username and source: 0 if it may go ahead, LOCKED while locked out.
+         */
+        long retryAfterMillis(String username, String source, long now) {
+            long wait = usernames.retryAfterMillis(username, now);
+            if (source != null && wait != LOCKED) {
+                wait = Math.max(wait, sources.retryAfterMillis(source, now));
+            }
+            return wait;
+        }
+
+        /** Either key may be null to leave that dimension unchanged. */
+        void recordFailure(String username, String source, long now) {
+            if (username != null) {
+                usernames.recordFailure(username, now);
+            }
+            if (source != null) {
+                sources.recordFailure(source, now);
+            }
+        }
+
+        static long delayFor(long failures, int freeFailures, int lockoutFailures) {
+            if (failures >= lockoutFailures) {
+                return LOCKED;
+            }
+            if (failures < freeFailures) {
+                return 0;
+            }
+            int doublings = (int) Math.min(30, failures - freeFailures);
+            return Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << doublings);
+        }
+
+        /**
+         * A count-min sketch of failures per time bucket plus a max-sketch of the
+         * last failure time, both with DEPTH rows of independently hashed cells.
+         * Counts are saturating bytes packed four to an int, since no limit is
+         * anywhere near 255, and failure times are whole seconds.
+         */
+        static class FailureSketch {
+            private static final int DEPTH = 4;
+
+            private final int mask;
+            private final long seed;
+            private final int freeFailures;
+            private final int lockoutFailures;
+            private final AtomicIntegerArray[] counts = new AtomicIntegerArray[WINDOW_BUCKETS];
+            private final AtomicLongArray bucketEpochs = new AtomicLongArray(WINDOW_BUCKETS);
+            private final AtomicIntegerArray lastFailureSeconds;
+
+            FailureSketch(int width, long seed, int freeFailures, int lockoutFailures) {
+                int size = Integer.highestOneBit(Math.max(4, width - 1)) << 1;
+                this.mask = size - 1;
+                this.seed = seed;
+                this.freeFailures = freeFailures;
+                this.lockoutFailures = lockoutFailures;
+                for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                    counts[i] = new AtomicIntegerArray(DEPTH * size / 4);
+                    bucketEpochs.set(i, -1);
+                }
+                lastFailureSeconds = new AtomicIntegerArray(DEPTH * size);
+            }
+
+            long retryAfterMillis(String key, long now) {
+                long hash = hash(key);
+                long failures = estimateFailures(hash, now);
+                long delay = delayFor(failures, freeFailures, lockoutFailures);
+                if (delay == 0 || delay == LOCKED) {
+                    return delay;
+                }
+                return Math.max(0, estimateLastFailure(hash) * 1000L + delay - now);
+            }
+
+            void recordFailure(String key, long now) {
+                long hash = hash(key);
+                long epoch = now / BUCKET_MILLIS;
+                int bucket = (int) (epoch % WINDOW_BUCKETS);
+                if (bucketEpochs.get(bucket) != epoch) {
+                    recycle(bucket, epoch);
+                }
+                AtomicIntegerArray bucketCounts = counts[bucket];
+                int lowest = Integer.MAX_VALUE;
+                for (int row = 0; row < DEPTH; row++) {
+                    lowest = Math.min(lowest, count(bucketCounts, cell(hash, row)));
+                }
+                int seconds = (int) (now / 1000);
+                for (int row = 0; row < DEPTH; row++) {
+                    int cell = cell(hash, row);
+                    if (count(bucketCounts, cell) == lowest) {
+                        increment(bucketCounts, cell);
+                    }
+                    int previous;
+                    while ((previous = lastFailureSeconds.get(cell)) < seconds && !lastFailureSeconds.compareAndSet(cell, previous, seconds)) {
+                        // Another failure raced this one into the cell; retry with its time
+                    }
+                }
+            }
+
+            private static int count(AtomicIntegerArray packed, int cell) {
+                return (packed.get(cell >>> 2) >>> ((cell & 3) << 3)) & 0xFF;
+            }
+
+            private static void increment(AtomicIntegerArray packed, int cell) {
+                int index = cell >>> 2;
+                int shift = (cell & 3) << 3;
+                int previous;
+                do {
+                    previous = packed.get(index);
+                    if (((previous >>> shift) & 0xFF) == 0xFF) {
+                        return;
+                    }
+                } while (!packed.compareAndSet(index, previous, previous + (1 << shift)));
+            }
+
+            /** Clears a bucket that last held an epoch which has left the window. */
+            private synchronized void recycle(int bucket, long epoch) {
+                if (bucketEpochs.get(bucket) >= epoch) {
+                    return;
+                }
+                AtomicIntegerArray bucketCounts = counts[bucket];
+                for (int i = 0; i < bucketCounts.length(); i++) {
+                    bucketCounts.set(i, 0);
+                }
+                bucketEpochs.set(bucket, epoch);
+            }
+
+            private long estimateFailures(long hash, long now) {
+                long epoch = now / BUCKET_MILLIS;
+                long estimate = Long.MAX_VALUE;
+                for (int row = 0; row < DEPTH; row++) {
+                    int cell = cell(hash, row);
+                    long sum = 0;
+                    for (int bucket = 0; bucket < WINDOW_BUCKETS; bucket++) {
+                        long bucketEpoch = bucketEpochs.get(bucket);
+                        if (bucketEpoch > epoch - WINDOW_BUCKETS && bucketEpoch <= epoch) {
+                            sum += count(counts[bucket], cell);
+                        }
+                    }
+                    estimate = Math.min(estimate, sum);
+                    if (estimate < freeFailures) {
+                        return estimate;
+                    }
+                }
+                return estimate;
+            }
+
+            private long estimateLastFailure(long hash) {
+                long estimate = Long.MAX_VALUE;
+                for (int row = 0; row < DEPTH; row++) {
+                    estimate = Math.min(estimate, lastFailureSeconds.get(cell(hash, row)));
+                }
+                return estimate;
+            }
+
+            /** Row cells are derived from two halves of one seeded 64-bit hash. */
+            private int cell(long hash, int row) {
+                int h1 = (int) hash;
+                int h2 = (int) (hash >>> 32) | 1;
+                return row * (mask + 1) + ((h1 + row * h2) & mask);
+            }
+
+            /**
+             * A seeded hash of the characters rather than String.hashCode, whose
+             * collisions are easy to construct and would let an attacker lock
+             * out a chosen username.
+             */
+            private long hash(String key) {
+                long h = seed ^ 0x9E3779B97F4A7C15L;
+                for (int i = 0; i < key.length(); i++) {
+                    h = (h ^ key.charAt(i)) * 0x100000001B3L;
+                    h ^= h >>> 29;
+                }
+                h *= 0xBF58476D1CE4E5B9L;
+                return h ^ (h >>> 32);
+            }
+        }
+    }
+
+    // ==================== METRICS ====================
+
+    /**
+     * Process-wide latency histograms and counters for the hot paths, also
+     * published over JMX as "OnlineBankingSystem:type=Metrics".
+     */
+    static class Metrics {
+        private static final Map<String, LatencyHistogram> HISTOGRAMS = new LinkedHashMap<>();
+        private static final Map<String, LongAdder> COUNTERS = new LinkedHashMap<>();
+
+        static final LatencyHistogram TRANSFER = histogram("transferFunds");
+        static final LatencyHistogram AUTHENTICATE = histogram("authenticateUser");
+        static final LatencyHistogram HISTORY_QUERY = histogram("getTransactionsByAccountNumber");
+        static final LatencyHistogram STATISTICS_REPORT = histogram("report.systemStatistics");
+        static final LatencyHistogram RECONCILIATION_REPORT = histogram("report.reconciliation");
+        static final LongAdder TRANSFERS_FAILED = counter("transferFunds.failed");
+        static final LongAdder LOGINS_FAILED = counter("authenticateUser.failed");
+        static final LongAdder LOGINS_THROTTLED = counter("authenticateUser.throttled");
+        static final LongAdder HOLDS_DECLINED = counter("holds.declined");
+        static final LongAdder HOLDS_SETTLED = counter("holds.settled");
+        static final LongAdder HOLDS_EXPIRED = counter("holds.expired");
+        static final LongAdder HOLDS_FAILED = counter("holds.failed");
+
+        private static LatencyHistogram histogram(String name) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            HISTOGRAMS.put(name, histogram);
+            return histogram;
+        }
+
+        private static LongAdder counter(String name) {
+            LongAdder counter = new LongAdder();
+            COUNTERS.put(name, counter);
+            return counter;
+        }
+
+        static Map<String, LatencyHistogram> histograms() {
+            return Collections.unmodifiableMap(HISTOGRAMS);
+        }
+
+        static Map<String, LongAdder> counters() {
+            return Collections.unmodifiableMap(COUNTERS);
+        }
+
+        static void reset() {
+            HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+            COUNTERS.values().forEach(LongAdder::reset);
+        }
+
+        static void registerMBean() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("OnlineBankingSystem:type=Metrics");
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new MetricsMBean(), name);
+                }
+            } catch (JMException e) {
+                System.out.println("Metrics are not available over JMX: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with HDR-style log-linear buckets: values below
+     * 64ns get a bucket each, and every power of two above that is split into 32
+     * buckets, so recorded values keep about 3% precision up to hours. Recording
+     * is a handful of atomic adds with no allocation.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+        private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            counts.getAndIncrement(bucketOf(nanos));
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        long getCount() {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        double getMeanNanos() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile,
+         * capped at the largest value recorded.
+         */
+        long getPercentileNanos(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+
+        static int bucketOf(long value) {
+            if (value < LINEAR_LIMIT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+            return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + mantissa;
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR_LIMIT) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            long mantissa = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+            return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    /**
+     * JMX view of the metrics. Each histogram is exposed as the attributes
+     * "name.count", "name.meanNanos", "name.p50Nanos", "name.p90Nanos",
+     * "name.p99Nanos" and "name.maxNanos", each counter under its own name,
+     * and the "reset" operation clears everything.
+     */
+    static class MetricsMBean implements DynamicMBean {
+        private static final String[] HISTOGRAM_FIELDS = {"count", "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos", "maxNanos"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = Metrics.counters().get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            int dot = attribute.lastIndexOf('.');
+            LatencyHistogram histogram = dot > 0 ? Metrics.histograms().get(attribute.substring(0, dot)) : null;
+            if (histogram == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return histogram.getCount();
+                case "meanNanos":
+                    return histogram.getMeanNanos();
+                case "p50Nanos":
+                    return histogram.getPercentileNanos(50);
+                case "p90Nanos":
+                    return histogram.getPercentileNanos(90);
+                case "p99Nanos":
+                    return histogram.getPercentileNanos(99);
+                case "maxNanos":
+                    return histogram.getMaxNanos();
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown attributes are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (actionName.equals("reset")) {
+                Metrics.reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : Metrics.histograms().keySet()) {
+                for (String field : HISTOGRAM_FIELDS) {
+                    String type = field.equals("meanNanos") ? "double" : "long";
+                    attributes.add(new MBeanAttributeInfo(name + "." + field, type, name + " " + field, true, false, false));
+                }
+            }
+            for (String name : Metrics.counters().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears all metrics", new MBeanParameterInfo[0],
+                    "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(getClass().getName(), "Online Banking System hot-path metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+    }
+
+    // ==================== TIERED STORAGE ====================
+
+    /**
+     * An immutable file of archived transactions, read through a read-only
+     * memory mapping so an open segment costs no heap beyond its header fields.
+     * <p>
+     * Records are stored in date order and compressed by replacing account
+     * numbers, currencies and descriptions with ids into a per-segment string
+     * dictionary, dates with varint deltas and amounts with varint cents where
+     * that is exact. Every BLOCK_SIZE-th record is listed in a block index with
+     * its date and offset, which serves date range scans and random access. An
+     * account index, sorted by account number, points at a delta-encoded list
+     * of each account's record numbers and holds the account's net amount over
+     * the segment, which lets a restarted ledger carry it forward without
+     * reading the records, and a list of its monthly statement totals, which
+     * lets that ledger rebuild them. A term index, sorted by term, does the same for the
+     * words of descriptions, so text searches decode only the records that
+     * contain them. A per-currency summary of counts, totals
+     * and the largest transaction lets statistics include a segment without
+     * reading its records.
+     */
+    static class TransactionSegment {
+        private static final int MAGIC = 0x4F425347;
+        private static final int VERSION = 3;
+        private static final int HEADER_SIZE = 76;
+        private static final int BLOCK_SIZE = 16;
+        private static final int ACCOUNT_ENTRY_SIZE = 28;
+        private static final int TERM_ENTRY_SIZE = 12;
+        private static final int MONTH_ENTRY_SIZE = 28;
+        private static final int SUMMARY_ENTRY_SIZE = 28;
+
+        private static final int AMOUNT_IN_CENTS = 1;
+        private static final int CREDIT_SAME = 2;
+        private static final int CREDIT_IN_CENTS = 4;
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int recordCount;
+        private final long minTime;
+        private final long maxTime;
+        private final int dictionaryPos;
+        private final int blockCount;
+        private final int blockPos;
+        private final int accountCount;
+        private final int accountPos;
+        private final int termCount;
+        private final int termPos;
+        private final int currencyCount;
+        private final int summaryPos;
+        private final int recordsPos;
+        private final int postingsPos;
+
+        private TransactionSegment(Path path, MappedByteBuffer buffer) throws IOException {
+            this.path = path;
+            this.buffer = buffer;
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a transaction segment");
+            }
+            recordCount = buffer.getInt(8);
+            minTime = buffer.getLong(12);
+            maxTime = buffer.getLong(20);
+            dictionaryPos = buffer.getInt(32);
+            blockCount = buffer.getInt(36);
+            blockPos = buffer.getInt(40);
+            accountCount = buffer.getInt(44);
+            accountPos = buffer.getInt(48);
+            currencyCount = buffer.getInt(52);
+            summaryPos = buffer.getInt(56);
+            recordsPos = buffer.getInt(60);
+            postingsPos = buffer.getInt(64);
+            termCount = buffer.getInt(68);
+            termPos = buffer.getInt(72);
+        }
+
+        static TransactionSegment open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                return new TransactionSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        /**
+         * Writes the transactions, which must be sorted by date, to a new segment
+         * file and opens it. The file is written under a temporary name and moved
+         * into place, so a segment found at the path is always complete.
+         */
+        static TransactionSegment write(Path path, List<Transaction> transactions) throws IOException {
+            Path partial = path.resolveSibling(path.getFileName() + ".partial");
+            try {
+                writeFile(partial, transactions);
+                Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            return open(path);
+        }
+
+        private static void writeFile(Path path, List<Transaction> transactions) throws IOException {
+            Map<String, Integer> stringIds = new HashMap<>();
+            List<String> strings = new ArrayList<>();
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(recordBytes);
+            int count = transactions.size();
+            int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            long[] blockTimes = new long[blocks];
+            int[] blockOffsets = new int[blocks];
+            Map<Integer, IntList> recordsByAccount = new HashMap<>();
+            Map<Integer, Double> netByAccount = new HashMap<>();
+            Map<Integer, TreeMap<Integer, MonthlyTotals>> monthsByAccount = new HashMap<>();
+            int month = 0;
+            long monthEnd = Long.MIN_VALUE;
+            TreeMap<String, IntList> recordsByTerm = new TreeMap<>();
+            Map<Integer, List<String>> termsByDescription = new HashMap<>();
+            Map<Integer, double[]> summaries = new TreeMap<>();
+
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                Transaction transaction = transactions.get(i);
+                long time = transaction.getDate().getTime();
+                if (i % BLOCK_SIZE == 0) {
+                    blockTimes[i / BLOCK_SIZE] = time;
+                    blockOffsets[i / BLOCK_SIZE] = records.size();
+                    previous = time;
+                }
+                writeVarLong(records, time - previous);
+                previous = time;
+                byte[] id = transaction.getTransactionId().getBytes(StandardCharsets.UTF_8);
+                writeVarLong(records, id.length);
+                records.write(id);
+                int from = intern(transaction.getFromAccount(), stringIds, strings);
+                int to = intern(transaction.getToAccount(), stringIds, strings);
+                int currency = intern(transaction.getCurrency(), stringIds, strings);
+                writeVarLong(records, from);
+                writeVarLong(records, to);
+                writeVarLong(records, currency);
+                String description = transaction.getDescription() != null ? transaction.getDescription() : "";
+                int descriptionId = intern(description, stringIds, strings);
+                writeVarLong(records, descriptionId);
+                writeAmounts(records, transaction.getAmount(), transaction.getCreditAmount());
+                for (String term : termsByDescription.computeIfAbsent(descriptionId, k -> DescriptionIndex.tokenize(description))) {
+                    IntList list = recordsByTerm.computeIfAbsent(term, k -> new IntList());
+                    if (list.size() == 0 || list.last() != i) {
+                        list.add(i);
+                    }
+                }
+
+                netByAccount.merge(from, -transaction.getAmount(), Double::sum);
+                netByAccount.merge(to, transaction.getCreditAmount(), Double::sum);
+                // Records are in date order, so the month only changes at its end
+                if (time >= monthEnd) {
+                    month = MonthlyStatement.monthOf(time);
+                    monthEnd = MonthlyStatement.startOf(month + 1);
+                }
+                monthsByAccount.computeIfAbsent(from, k -> new TreeMap<>()).computeIfAbsent(month, MonthlyTotals::new)
+                        .add(-transaction.getAmount());
+                monthsByAccount.computeIfAbsent(to, k -> new TreeMap<>()).computeIfAbsent(month, MonthlyTotals::new)
+                        .add(transaction.getCreditAmount());
+                recordsByAccount.computeIfAbsent(from, k -> new IntList()).add(i);
+                if (to != from) {
+                    recordsByAccount.computeIfAbsent(to, k -> new IntList()).add(i);
+                }
+                // total, count, largest amount, record number of the largest
+                double[] summary = summaries.computeIfAbsent(currency, k -> new double[] {0, 0, -1, -1});
+                summary[0] += transaction.getAmount();
+                summary[1]++;
+                if (transaction.getAmount() > summary[2]) {
+                    summary[2] = transaction.getAmount();
+                    summary[3] = i;
+                }
+            }
+
+            int[] termIds = new int[recordsByTerm.size()];
+            int termIndex = 0;
+            for (String term : recordsByTerm.keySet()) {
+                termIds[termIndex++] = intern(term, stringIds, strings);
+            }
+
+            ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+            DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+            int[] stringOffsets = new int[strings.size()];
+            for (int i = 0; i < strings.size(); i++) {
+                stringOffsets[i] = dictionary.size();
+                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(dictionary, bytes.length);
+                dictionary.write(bytes);
+            }
+
+            List<Integer> accounts = new ArrayList<>(recordsByAccount.keySet());
+            accounts.sort(Comparator.comparing(strings::get));
+            ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+            DataOutputStream postings = new DataOutputStream(postingBytes);
+            int[] postingOffsets = new int[accounts.size()];
+            for (int a = 0; a < accounts.size(); a++) {
+                postingOffsets[a] = postings.size();
+                writeOrdinals(postings, recordsByAccount.get(accounts.get(a)));
+            }
+            int[] termPostingOffsets = new int[termIds.length];
+            termIndex = 0;
+            for (IntList ordinals : recordsByTerm.values()) {
+                termPostingOffsets[termIndex++] = postings.size();
+                writeOrdinals(postings, ordinals);
+            }
+
+            int dictionaryPos = HEADER_SIZE;
+            int stringsPos = dictionaryPos + 4 * strings.size();
+            int blockPos = stringsPos + dictionary.size();
+            int accountPos = blockPos + 12 * blocks;
+            int termPos = accountPos + ACCOUNT_ENTRY_SIZE * accounts.size();
+            int monthPos = termPos + TERM_ENTRY_SIZE * termIds.length;
+            int monthEntries = 0;
+            for (TreeMap<Integer, MonthlyTotals> months : monthsByAccount.values()) {
+                monthEntries += months.size();
+            }
+            int summaryPos = monthPos + MONTH_ENTRY_SIZE * monthEntries;
+            int recordsPos = summaryPos + SUMMARY_ENTRY_SIZE * summaries.size();
+            int postingsPos = recordsPos + records.size();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+                    FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)),
+                    DataPorter.BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeLong(count > 0 ? transactions.get(0).getDate().getTime() : 0);
+                out.writeLong(count > 0 ? transactions.get(count - 1).getDate().getTime() : 0);
+                out.writeInt(strings.size());
+                out.writeInt(dictionaryPos);
+                out.writeInt(blocks);
+                out.writeInt(blockPos);
+                out.writeInt(accounts.size());
+                out.writeInt(accountPos);
+                out.writeInt(summaries.size());
+                out.writeInt(summaryPos);
+                out.writeInt(recordsPos);
+                out.writeInt(postingsPos);
+                out.writeInt(termIds.length);
+                out.writeInt(termPos);
+                for (int offset : stringOffsets) {
+                    out.writeInt(stringsPos + offset);
+                }
+                dictionaryBytes.writeTo(out);
+                for (int b = 0; b < blocks; b++) {
+                    out.writeLong(blockTimes[b]);
+                    out.writeInt(recordsPos + blockOffsets[b]);
+                }
+                int monthEntry = monthPos;
+                for (int a = 0; a < accounts.size(); a++) {
+                    out.writeInt(accounts.get(a));
+                    out.writeInt(postingsPos + postingOffsets[a]);
+                    out.writeInt(recordsByAccount.get(accounts.get(a)).size());
+                    out.writeDouble(netByAccount.get(accounts.get(a)));
+                    int months = monthsByAccount.get(accounts.get(a)).size();
+                    out.writeInt(monthEntry);
+                    out.writeInt(months);
+                    monthEntry += MONTH_ENTRY_SIZE * months;
+                }
+                termIndex = 0;
+                for (IntList ordinals : recordsByTerm.values()) {
+                    out.writeInt(termIds[termIndex]);
+                    out.writeInt(postingsPos + termPostingOffsets[termIndex]);
+                    out.writeInt(ordinals.size());
+                    termIndex++;
+                }
+                for (int account : accounts) {
+                    for (Map.Entry<Integer, MonthlyTotals> entry : monthsByAccount.get(account).entrySet()) {
+                        MonthlyTotals totals = entry.getValue();
+                        out.writeInt(entry.getKey());
+                        out.writeDouble(totals.totalIn);
+                        out.writeDouble(totals.totalOut);
+                        out.writeInt(totals.countIn);
+                        out.writeInt(totals.countOut);
+                    }
+                }
+                for (Map.Entry<Integer, double[]> entry : summaries.entrySet()) {
+                    double[] summary = entry.getValue();
+                    out.writeInt(entry.getKey());
+                    out.writeDouble(summary[0]);
+                    out.writeInt((int) summary[1]);
+                    out.writeDouble(summary[2]);
+                    out.writeInt((int) summary[3]);
+                }
+                recordBytes.writeTo(out);
+                postingBytes.writeTo(out);
+            }
+        }
+
+        /** Writes ascending record numbers as varint deltas. */
+        private static void writeOrdinals(DataOutputStream out, IntList ordinals) throws IOException {
+            int last = 0;
+            for (int i = 0; i < ordinals.size(); i++) {
+                writeVarLong(out, ordinals.get(i) - last);
+                last = ordinals.get(i);
+            }
+        }
+
+        private static int intern(String value, Map<String, Integer> ids, List<String> strings) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = strings.size();
+                ids.put(value, id);
+                strings.add(value);
+            }
+            return id;
+        }
+
+        private static void writeAmounts(DataOutputStream out, double amount, double creditAmount) throws IOException {
+            long amountCents = Math.round(amount * 100);
+            long creditCents = Math.round(creditAmount * 100);
+            boolean amountExact = amountCents / 100.0 == amount;
+            boolean creditSame = Double.compare(creditAmount, amount) == 0;
+            boolean creditExact = !creditSame && creditCents / 100.0 == creditAmount;
+            out.writeByte((amountExact ? AMOUNT_IN_CENTS : 0) | (creditSame ? CREDIT_SAME : 0) | (creditExact ? CREDIT_IN_CENTS : 0));
+            if (amountExact) {
+                writeVarLong(out, zigZag(amountCents));
+            } else {
+                out.writeDouble(amount);
+            }
+            if (creditExact) {
+                writeVarLong(out, zigZag(creditCents));
+            } else if (!creditSame) {
+                out.writeDouble(creditAmount);
+            }
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        int getRecordCount() {
+            return recordCount;
+        }
+
+        long getMinTime() {
+            return minTime;
+        }
+
+        long getMaxTime() {
+            return maxTime;
+        }
+
+        /** Hands each account in this segment and its net amount over the segment to the consumer. */
+        void forEachAccountNet(java.util.function.ObjDoubleConsumer<String> consumer) {
+            for (int i = 0; i < accountCount; i++) {
+                int entry = accountPos + ACCOUNT_ENTRY_SIZE * i;
+                consumer.accept(string(buffer.getInt(entry)), buffer.getDouble(entry + 12));
+            }
+        }
+
+        /** Hands each account in this segment and its totals for each month it has transactions in to the consumer. */
+        void forEachAccountMonth(java.util.function.BiConsumer<String, MonthlyTotals> consumer) {
+            for (int i = 0; i < accountCount; i++) {
+                int entry = accountPos + ACCOUNT_ENTRY_SIZE * i;
+                String accountNumber = string(buffer.getInt(entry));
+                int monthEntry = buffer.getInt(entry + 20);
+                for (int m = buffer.getInt(entry + 24); m > 0; m--, monthEntry += MONTH_ENTRY_SIZE) {
+                    MonthlyTotals totals = new MonthlyTotals(buffer.getInt(monthEntry));
+                    totals.totalIn = buffer.getDouble(monthEntry + 4);
+                    totals.totalOut = buffer.getDouble(monthEntry + 12);
+                    totals.countIn = buffer.getInt(monthEntry + 20);
+                    totals.countOut = buffer.getInt(monthEntry + 24);
+                    consumer.accept(accountNumber, totals);
+                }
+            }
+        }
+
+        /** The account's transactions in this segment, in date order. */
+        List<Transaction> forAccount(String accountNumber) {
+            List<Transaction> result = new ArrayList<>();
+            readRecords(accountOrdinals(accountNumber), result::add);
+            return result;
+        }
+
+        /** Ascending record numbers of the account's transactions in this segment. */
+        int[] accountOrdinals(String accountNumber) {
+            int entry = find(accountPos, ACCOUNT_ENTRY_SIZE, accountCount, accountNumber);
+            if (entry < accountCount && string(buffer.getInt(accountPos + ACCOUNT_ENTRY_SIZE * entry)).equals(accountNumber)) {
+                int position = accountPos + ACCOUNT_ENTRY_SIZE * entry;
+                return readOrdinals(buffer.getInt(position + 4), buffer.getInt(position + 8));
+            }
+            return new int[0];
+        }
+
+        /**
+         * Ascending record numbers of the transactions whose descriptions match
+         * the query, under the same rules as DescriptionIndex.search: null for a
+         * blank query, and none for a query without searchable words.
+         */
+        int[] searchText(String query) {
+            return DescriptionIndex.search(query, this::termRecords);
+        }
+
+        private IntList termRecords(String term, boolean prefix) {
+            List<IntList> lists = new ArrayList<>();
+            for (int entry = find(termPos, TERM_ENTRY_SIZE, termCount, term); entry < termCount; entry++) {
+                int position = termPos + TERM_ENTRY_SIZE * entry;
+                String candidate = string(buffer.getInt(position));
+                if (prefix ? !candidate.startsWith(term) : !candidate.equals(term)) {
+                    break;
+                }
+                int[] ordinals = readOrdinals(buffer.getInt(position + 4), buffer.getInt(position + 8));
+                lists.add(IntList.wrap(ordinals, ordinals.length));
+            }
+            return lists.isEmpty() ? new IntList() : DescriptionIndex.union(lists);
+        }
+
+        /** Index of the first entry, in a table sorted by its leading string id, whose string is not below key. */
+        private int find(int tablePos, int entrySize, int count, String key) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (string(buffer.getInt(tablePos + entrySize * mid)).compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int[] readOrdinals(int postingsOffset, int count) {
+            Cursor postings = new Cursor(postingsOffset);
+            int[] ordinals = new int[count];
+            int ordinal = 0;
+            for (int i = 0; i < count; i++) {
+                ordinal += (int) postings.varLong();
+                ordinals[i] = ordinal;
+            }
+            return ordinals;
+        }
+
+        /** Hands the records with the given ascending numbers to the consumer, jumping between blocks. */
+        void readRecords(int[] ordinals, java.util.function.Consumer<Transaction> consumer) {
+            Cursor records = new Cursor(0);
+            int next = -1;
+            long previous = 0;
+            for (int ordinal : ordinals) {
+                if (next < 0 || ordinal / BLOCK_SIZE != (next - 1) / BLOCK_SIZE) {
+                    // Jump to the start of the record's block
+                    int block = ordinal / BLOCK_SIZE;
+                    records.position = buffer.getInt(blockPos + 12 * block + 8);
+                    previous = buffer.getLong(blockPos + 12 * block);
+                    next = block * BLOCK_SIZE;
+                }
+                while (next < ordinal) {
+                    previous = skipRecord(records, previous);
+                    next++;
+                }
+                Transaction transaction = readRecord(records, previous);
+                previous = transaction.getDate().getTime();
+                next++;
+                consumer.accept(transaction);
+            }
+        }
+
+        /**
+         * Hands the segment's transactions dated from (inclusive) to to
+         * (exclusive) to the consumer in date order.
+         */
+        void forRange(long from, long to, java.util.function.Consumer<Transaction> consumer) {
+            if (recordCount == 0 || from > maxTime || to <= minTime) {
+                return;
+            }
+            // Start at the last block that begins before from, since equal dates can span blocks
+            int low = 0;
+            int high = blockCount - 1;
+            int block = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (buffer.getLong(blockPos + 12 * mid) < from) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            Cursor records = new Cursor(buffer.getInt(blockPos + 12 * block + 8));
+            long previous = buffer.getLong(blockPos + 12 * block);
+            for (int ordinal = block * BLOCK_SIZE; ordinal < recordCount; ordinal++) {
+                if (ordinal % BLOCK_SIZE == 0) {
+                    previous = buffer.getLong(blockPos + 12 * (ordinal / BLOCK_SIZE));
+                }
+                Transaction transaction = readRecord(records, previous);
+                previous = transaction.getDate().getTime();
+                if (previous >= to) {
+                    return;
+                }
+                if (previous >= from) {
+                    consumer.accept(transaction);
+                }
+            }
+        }
+
+        void forEach(java.util.function.Consumer<Transaction> consumer) {
+            forRange(Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+        }
+
+        /** Totals of transaction amounts in this segment, by currency. */
+        Map<String, Double> getAmountByCurrency() {
+            Map<String, Double> totals = new TreeMap<>();
+            for (int i = 0; i < currencyCount; i++) {
+                int entry = summaryPos + SUMMARY_ENTRY_SIZE * i;
+                totals.put(string(buffer.getInt(entry)), buffer.getDouble(entry + 4));
+            }
+            return totals;
+        }
+
+        /** The largest transaction of each currency in this segment. */
+        List<Transaction> getLargestByCurrency() {
+            List<Transaction> largest = new ArrayList<>();
+            for (int i = 0; i < currencyCount; i++) {
+                int ordinal = buffer.getInt(summaryPos + SUMMARY_ENTRY_SIZE * i + 24);
+                Cursor records = new Cursor(buffer.getInt(blockPos + 12 * (ordinal / BLOCK_SIZE) + 8));
+                long previous = buffer.getLong(blockPos + 12 * (ordinal / BLOCK_SIZE));
+                for (int skip = ordinal % BLOCK_SIZE; skip > 0; skip--) {
+                    previous = skipRecord(records, previous);
+                }
+                largest.add(readRecord(records, previous));
+            }
+            return largest;
+        }
+
+        private Transaction readRecord(Cursor in, long previous) {
+            long time = previous + in.varLong();
+            String id = in.utf((int) in.varLong());
+            String from = string((int) in.varLong());
+            String to = string((int) in.varLong());
+            String currency = string((int) in.varLong());
+            String description = string((int) in.varLong());
+            int flags = buffer.get(in.position++);
+            double amount = (flags & AMOUNT_IN_CENTS) != 0 ? unZigZag(in.varLong()) / 100.0 : in.float64();
+            double creditAmount;
+            if ((flags & CREDIT_SAME) != 0) {
+                creditAmount = amount;
+            } else {
+                creditAmount = (flags & CREDIT_IN_CENTS) != 0 ? unZigZag(in.varLong()) / 100.0 : in.float64();
+            }
+            return new Transaction(id, from, to, amount, currency, creditAmount, description, new Date(time));
+        }
+
+        /** Steps over a record without decoding its strings and returns its date. */
+        private long skipRecord(Cursor in, long previous) {
+            long time = previous + in.varLong();
+            int idLength = (int) in.varLong();
+            in.position += idLength;
+            for (int i = 0; i < 4; i++) {
+                in.varLong();
+            }
+            int flags = buffer.get(in.position++);
+            if ((flags & AMOUNT_IN_CENTS) != 0) {
+                in.varLong();
+            } else {
+                in.position += 8;
+            }
+            if ((flags & CREDIT_SAME) == 0) {
+                if ((flags & CREDIT_IN_CENTS) != 0) {
+                    in.varLong();
+                } else {
+                    in.position += 8;
+                }
+            }
+            return time;
+        }
+
+        private String string(int id) {
+            Cursor in = new Cursor(buffer.getInt(dictionaryPos + 4 * id));
+            return in.utf((int) in.varLong());
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * A read position in the mapped buffer. Reads use absolute offsets, so
+         * any number of cursors can read a segment concurrently.
+         */
+        private class Cursor {
+            private int position;
+
+            Cursor(int position) {
+                this.position = position;
+            }
+
+            long varLong() {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                return value;
+            }
+
+            double float64() {
+                double value = buffer.getDouble(position);
+                position += 8;
+                return value;
+            }
+
+            String utf(int length) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(position + i);
+                }
+                position += length;
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Periodically moves transactions older than a configured age from the
+     * transaction manager into segment files, so the heap holds only recent
+     * history no matter how long the system has been running.
+     */
+    static class TieringJob {
+        private final TransactionManager transactionManager;
+        private final Path directory;
+        private final long maxAgeMillis;
+        private volatile TransferReport lastRun;
+        private ScheduledExecutorService scheduler;
+
+        public TieringJob(TransactionManager transactionManager, Path directory, long maxAgeMillis) {
+            this.transactionManager = transactionManager;
+            this.directory = directory;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        public TransferReport getLastRun() {
+            return lastRun;
+        }
+
+        public TransferReport run() throws IOException {
+            long start = System.nanoTime();
+            int archived = transactionManager.archiveOlderThan(directory, new Date(System.currentTimeMillis() - maxAgeMillis));
+            TransferReport report = new TransferReport("archived transactions", archived, archived, 0, System.nanoTime() - start);
+            lastRun = report;
+            return report;
+        }
+
+        public synchronized void scheduleHourly() {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "transaction-tiering");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    run();
+                } catch (IOException e) {
+                    System.err.println("Archiving transactions to " + directory + " failed: " + e.getMessage());
+                }
+            }, 1, 60, TimeUnit.MINUTES);
+        }
+    }
+
+    // ==================== HOLDS ====================
+
+    enum HoldStatus {
+        AUTHORIZED, CAPTURING, CAPTURED, RELEASED, EXPIRED
+    }
+
+    /**
+     * Funds set aside on an account by an authorization, payable to another
+     * account. The status moves from AUTHORIZED to CAPTURING when captured and
+     * to CAPTURED once settled, or from AUTHORIZED to RELEASED or EXPIRED. Each
+     * move is a compare-and-set, so a capture racing a release or an expiry has
+     * exactly one winner.
+     */
+    static class Hold {
+        private final long id;
+        private final Account account;
+        private final Account payee;
+        private final double amount;
+        private final String description;
+        private final Date authorizedAt;
+        private final long expiresAt;
+        private final AtomicReference<HoldStatus> status = new AtomicReference<>(HoldStatus.AUTHORIZED);
+        private volatile double capturedAmount;
+        private volatile ScheduledFuture<?> expiry;
+
+        Hold(long id, Account account, Account payee, double amount, String description, Date authorizedAt, long expiresAt) {
+            this.id = id;
+            this.account = account;
+            this.payee = payee;
+            this.amount = amount;
+            this.description = description;
+            this.authorizedAt = authorizedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getAccountNumber() {
+            return account.getAccountNumber();
+        }
+
+        public String getPayeeAccountNumber() {
+            return payee.getAccountNumber();
+        }
+
+        /** Authorized amount, in the held account's currency. */
+        public double getAmount() {
+            return amount;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Date getAuthorizedAt() {
+            return authorizedAt;
+        }
+
+        public Date getExpiresAt() {
+            return new Date(expiresAt);
+        }
+
+        public HoldStatus getStatus() {
+            return status.get();
+        }
+
+        public double getCapturedAmount() {
+            return capturedAmount;
+        }
+
+        boolean transition(HoldStatus from, HoldStatus to) {
+            return status.compareAndSet(from, to);
+        }
+    }
+
+    /**
+     * Authorizations against account balances. Authorizing a hold lowers the
+     * account's available balance, kept as a running total on the account, so
+     * transfers still check funds in O(1) however many holds are outstanding.
+     * The ledger balance only changes when a captured hold is settled.
+     * <p>
+     * Captures are queued and settled by a background worker in batches, so a
+     * batch of captures is written to the transaction log under one lock.
+     * Every hold is also scheduled to expire; the expiry is cancelled when the
+     * hold is captured or released, and an expiry that fires late finds the
+     * hold already gone and does nothing.
+     */
+    static class HoldManager {
+        static final long DEFAULT_HOLD_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager;
+        private final AtomicLong nextId = new AtomicLong();
+        private final Map<Long, Hold> outstanding = new ConcurrentHashMap<>();
+        private final Queue<Hold> captures = new ConcurrentLinkedQueue<>();
+        private final ScheduledThreadPoolExecutor expiryScheduler;
+        private ScheduledExecutorService settlementWorker;
+
+        public HoldManager(AccountManager accountManager, TransactionManager transactionManager) {
+            this.accountManager = accountManager;
+            this.transactionManager = transactionManager;
+            expiryScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "hold-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Captured and released holds take their expiry tasks out of the queue
+            expiryScheduler.setRemoveOnCancelPolicy(true);
+        }
+
+        /**
+         * Holds amount, in the account's currency, for a later payment to the
+         * payee. Returns null if either account is unknown or the available
+         * balance is short.
+         */
+        public Hold authorize(String accountNumber, String payeeAccountNumber, double amount, String description, long holdMillis) {
+            Account account = accountManager.getAccountByNumber(accountNumber);
+            Account payee = accountManager.getAccountByNumber(payeeAccountNumber);
+            if (account == null || payee == null || account == payee) {
+                return null;
+            }
+            if (!accountManager.reserve(account, amount)) {
+                Metrics.HOLDS_DECLINED.increment();
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            Hold hold = new Hold(nextId.incrementAndGet(), account, payee, amount, description, new Date(now), now + holdMillis);
+            outstanding.put(hold.getId(), hold);
+            hold.expiry = expiryScheduler.schedule(() -> expire(hold), holdMillis, TimeUnit.MILLISECONDS);
+            return hold;
+        }
+
+        /**
+         * Captures up to the authorized amount of a hold for settlement; any
+         * remainder is released when it settles. Returns false if the hold is
+         * unknown, no longer authorized or past its expiry.
+         */
+        public boolean capture(long holdId, double amount) {
+            Hold hold = outstanding.get(holdId);
+            if (hold == null || amount <= 0 || amount > hold.getAmount()) {
+                return false;
+            }
+            if (System.currentTimeMillis() >= hold.expiresAt) {
+                expire(hold);
+                return false;
+            }
+            if (!hold.transition(HoldStatus.AUTHORIZED, HoldStatus.CAPTURING)) {
+                return false;
+            }
+            hold.capturedAmount = amount;
+            cancelExpiry(hold);
+            captures.add(hold);
+            return true;
+        }
+
+        /** Gives the held funds back. Returns false if the hold is unknown or already captured. */
+        public boolean release(long holdId) {
+            Hold hold = outstanding.get(holdId);
+            if (hold == null || !hold.transition(HoldStatus.AUTHORIZED, HoldStatus.RELEASED)) {
+                return false;
+            }
+            cancelExpiry(hold);
+            drop(hold);
+            return true;
+        }
+
+        private void expire(Hold hold) {
+            if (hold.transition(HoldStatus.AUTHORIZED, HoldStatus.EXPIRED)) {
+                drop(hold);
+                Metrics.HOLDS_EXPIRED.increment();
+            }
+        }
+
+        private void cancelExpiry(Hold hold) {
+            ScheduledFuture<?> expiry = hold.expiry;
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+        }
+
+        private void drop(Hold hold) {
+            accountManager.unreserve(hold.account, hold.getAmount());
+            outstanding.remove(hold.getId());
+        }
+
+        /**
+         * Settles up to maxBatch captured holds and records them in the
+         * transaction log as one batch. A hold whose currencies can no longer
+         * be converted is released instead. Returns the number of holds taken
+         * off the capture queue.
+         */
+        public int settle(int maxBatch) {
+            List<Transaction> settled = new ArrayList<>();
+            int processed = 0;
+            Hold hold;
+            while (processed < maxBatch && (hold = captures.poll()) != null) {
+                processed++;
+                double creditAmount = accountManager.settle(hold.account, hold.payee, hold.getAmount(), hold.getCapturedAmount());
+                if (creditAmount < 0) {
+                    hold.transition(HoldStatus.CAPTURING, HoldStatus.RELEASED);
+                    drop(hold);
+                    Metrics.HOLDS_FAILED.increment();
+                    continue;
+                }
+                hold.transition(HoldStatus.CAPTURING, HoldStatus.CAPTURED);
+                outstanding.remove(hold.getId());
+                settled.add(new Transaction("HLD-" + hold.getId(), hold.getAccountNumber(), hold.getPayeeAccountNumber(),
+                        hold.getCapturedAmount(), hold.account.getCurrency(), creditAmount, hold.getDescription(), new Date()));
+            }
+            if (!settled.isEmpty()) {
+                transactionManager.addTransactions(settled);
+                Metrics.HOLDS_SETTLED.add(settled.size());
+            }
+            return processed;
+        }
+
+        /** Settles captured holds in batches of batchSize every intervalMillis. */
+        public synchronized void startSettlement(long intervalMillis, int batchSize) {
+            if (settlementWorker != null) {
+                return;
+            }
+            settlementWorker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "hold-settlement");
+                thread.setDaemon(true);
+                return thread;
+            });
+            settlementWorker.scheduleWithFixedDelay(() -> {
+                while (settle(batchSize) == batchSize) {
+                    // Keep draining while full batches are waiting
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        public Hold getHold(long holdId) {
+            return outstanding.get(holdId);
+        }
+
+        /** Outstanding holds on the account, oldest first. Scans every outstanding hold. */
+        public List<Hold> getHolds(String accountNumber) {
+            return outstanding.values().stream()
+                    .filter(h -> h.getAccountNumber().equals(accountNumber))
+                    .sorted(Comparator.comparingLong(Hold::getId))
+                    .collect(Collectors.toList());
+        }
+
+        public int getOutstandingCount() {
+            return outstanding.size();
+        }
+
+        public int getPendingSettlementCount() {
+            return captures.size();
+        }
+    }
+
+    // ==================== CHANGE FEED ====================
+
+    enum ChangeType {
+        USER_ADDED,
+        ACCOUNT_ADDED,
+        TRANSFER
+    }
+
+    /**
+     * A change published to the feed. For USER_ADDED the key is the username.
+     * For ACCOUNT_ADDED the key is the account number, the counterparty is the
+     * owner and both amounts are the opening balance. For TRANSFER the key and
+     * counterparty are the source and destination accounts, amount is debited
+     * in the given currency and creditAmount is what the destination received.
+     * <p>
+     * Events are ring buffer slots that are reused, so handlers must copy out
+     * anything they keep.
+     */
+    static class ChangeEvent {
+        private long sequence;
+        private long timestamp;
+        private ChangeType type;
+        private String key;
+        private String counterparty;
+        private double amount;
+        private double creditAmount;
+        private String currency;
+
+        void set(long sequence, ChangeType type, String key, String counterparty, double amount, double creditAmount, String currency) {
+            this.sequence = sequence;
+            this.timestamp = System.currentTimeMillis();
+            this.type = type;
+            this.key = key;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.creditAmount = creditAmount;
+            this.currency = currency;
+        }
+
+        void copyFrom(ChangeEvent other) {
+            sequence = other.sequence;
+            timestamp = other.timestamp;
+            type = other.type;
+            key = other.key;
+            counterparty = other.counterparty;
+            amount = other.amount;
+            creditAmount = other.creditAmount;
+            currency = other.currency;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getCounterparty() {
+            return counterparty;
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        public double getCreditAmount() {
+            return creditAmount;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+    }
+
+    /**
+     * What a producer does when the ring is full. BLOCK subscribers hold
+     * producers back until they have consumed the slot about to be reused;
+     * DROP subscribers never hold producers back and skip ahead, counting what
+     * they missed, when they fall a full ring behind.
+     */
+    enum BackPressure {
+        BLOCK,
+        DROP
+    }
+
+    /**
+     * Bounded multi-producer change feed in the style of the LMAX Disruptor.
+     * Events live in a preallocated ring of slots. A producer claims the next
+     * sequence with one atomic increment, fills the slot and marks it published
+     * by storing the sequence in a parallel array; consumers each keep their own
+     * cursor and read published slots in sequence order without locks.
+     * Publishing costs nothing while there are no subscribers.
+     */
+    static class ChangeFeed {
+        private final ChangeEvent[] slots;
+        private final AtomicLongArray published;
+        private final int mask;
+        private final AtomicLong nextSequence = new AtomicLong();
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private volatile long gatingCache = Long.MIN_VALUE;
+
+        /** The capacity is rounded up to a power of two. */
+        ChangeFeed(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            slots = new ChangeEvent[size];
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                slots[i] = new ChangeEvent();
+                published.set(i, -1);
+            }
+            mask = size - 1;
+        }
+
+        int getCapacity() {
+            return slots.length;
+        }
+
+        long getPublishedCount() {
+            return nextSequence.get();
+        }
+
+        public void publish(ChangeType type, String key, String counterparty, double amount, double creditAmount, String currency) {
+            if (subscriptions.isEmpty()) {
+                return;
+            }
+            long sequence = nextSequence.getAndIncrement();
+            long wrapPoint = sequence - slots.length;
+            if (wrapPoint >= gatingCache) {
+                long gate;
+                while (wrapPoint >= (gate = slowestBlockingCursor())) {
+                    Thread.yield();
+                }
+                // With no blocking subscriber there is nothing to cache; caching
+                // Long.MAX_VALUE would leave later blocking subscribers ungated
+                if (gate != Long.MAX_VALUE) {
+                    gatingCache = gate;
+                }
+            }
+            int index = (int) (sequence & mask);
+            slots[index].set(sequence, type, key, counterparty, amount, creditAmount, currency);
+            published.set(index, sequence);
+        }
+
+        private long slowestBlockingCursor() {
+            long slowest = Long.MAX_VALUE;
+            for (Subscription subscription : subscriptions) {
+                if (subscription.backPressure == BackPressure.BLOCK) {
+                    slowest = Math.min(slowest, subscription.cursor);
+                }
+            }
+            return slowest;
+        }
+
+        /** Subscribes from the next event to be published onwards. */
+        public Subscription subscribe(String name, BackPressure backPressure) {
+            Subscription subscription = new Subscription(name, backPressure, nextSequence.get());
+            subscriptions.add(subscription);
+            return subscription;
+        }
+
+        public List<Subscription> getSubscriptions() {
+            return Collections.unmodifiableList(subscriptions);
+        }
+
+        /**
+         * One consumer's position in the feed. A subscription is polled by a
+         * single thread, either the caller's or the one started by start().
+         */
+        class Subscription implements AutoCloseable {
+            private final String name;
+            private final BackPressure backPressure;
+            private final ChangeEvent scratch = new ChangeEvent();
+            private volatile long cursor;
+            private volatile boolean closed;
+            private long missed;
+
+            private Subscription(String name, BackPressure backPressure, long cursor) {
+                this.name = name;
+                this.backPressure = backPressure;
+                this.cursor = cursor;
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public BackPressure getBackPressure() {
+                return backPressure;
+            }
+
+            /** Events published but not yet consumed by this subscription. */
+            public long getLag() {
+                return Math.max(0, nextSequence.get() - cursor);
+            }
+
+            public long getMissed() {
+                return missed;
+            }
+
+            /**
+             * Hands up to maxEvents published events to the handler in sequence
+             * order and returns how many were handled.
+             */
+            public int poll(java.util.function.Consumer<ChangeEvent> handler, int maxEvents) {
+                long sequence = cursor;
+                int handled = 0;
+                while (handled < maxEvents) {
+                    int index = (int) (sequence & mask);
+                    long available = published.get(index);
+                    if (available < sequence) {
+                        break;
+                    }
+                    if (available > sequence) {
+                        // Lapped by producers: skip to the oldest event still in the ring
+                        long resume = Math.max(sequence + 1, available - mask);
+                        missed += resume - sequence;
+                        sequence = resume;
+                        continue;
+                    }
+                    if (backPressure == BackPressure.BLOCK) {
+                        handler.accept(slots[index]);
+                    } else {
+                        // The slot may be overwritten while it is copied, so check it afterwards
+                        scratch.copyFrom(slots[index]);
+                        if (published.get(index) != sequence) {
+                            continue;
+                        }
+                        handler.accept(scratch);
+                    }
+                    sequence++;
+                    handled++;
+                }
+                cursor = sequence;
+                return handled;
+            }
+
+            /** Polls on a daemon thread until the subscription is closed. */
+            public Thread start(java.util.function.Consumer<ChangeEvent> handler) {
+                Thread thread = new Thread(() -> {
+                    while (!closed) {
+                        if (poll(handler, 1024) == 0) {
+                            LockSupport.parkNanos(100_000);
+                        }
+                    }
+                }, "change-feed-" + name);
+                thread.setDaemon(true);
+                thread.start();
+                return thread;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                subscriptions.remove(this);
+            }
+        }
+    }
+
+    // ==================== SHARDING ====================
+
+    /**
+     * Accounts partitioned over in-process shards by a hash of the account
+     * number. Each shard has its own AccountManager and TransactionManager, so
+     * its accounts, its part of the ledger and its commit ordering are independent
+     * of every other shard.
+     * <p>
+     * Transfers within one shard take the ordinary locked path. Transfers between
+     * shards run a two-phase protocol through the AccountShard participant methods
+     * only, which is the boundary a remote shard would implement: the destination
+     * votes on whether it can accept the credit, the source reserves the funds,
+     * and only if both agree are the credit applied and the reservation settled.
+     */
+    static class ShardedBank {
+        private final AccountShard[] shards;
+        private final FxRateTable fxRates = new FxRateTable();
+        private final AtomicLong nextTransferId = new AtomicLong();
+
+        ShardedBank(int shardCount) {
+            shards = new AccountShard[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new AccountShard(i, fxRates);
+            }
+        }
+
+        int getShardCount() {
+            return shards.length;
+        }
+
+        AccountShard shardFor(String accountNumber) {
+            // Spread the hash so account numbers that differ only in their last
+            // digits do not land on neighbouring shards in a regular pattern
+            int hash = accountNumber.hashCode() * 0x9E3779B9;
+            return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+        }
+
+        public void addAccounts(Collection<Account> batch) {
+            List<List<Account>> perShard = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                perShard.add(new ArrayList<>());
+            }
+            for (Account account : batch) {
+                perShard.get(shardFor(account.getAccountNumber()).getId()).add(account);
+            }
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].addAccounts(perShard.get(i));
+            }
+        }
+
+        public Account getAccountByNumber(String accountNumber) {
+            return shardFor(accountNumber).getAccountManager().getAccountByNumber(accountNumber);
+        }
+
+        public List<Transaction> getTransactionsByAccountNumber(String accountNumber) {
+            return shardFor(accountNumber).getTransactionManager().getTransactionsByAccountNumber(accountNumber);
+        }
+
+        public int getTransactionCount() {
+            int count = 0;
+            for (AccountShard shard : shards) {
+                count += shard.getTransactionManager().getTransactionCount();
+            }
+            return count;
+        }
+
+        public boolean transferFunds(String fromAccountNumber, String toAccountNumber, double amount) {
+            return transfer(fromAccountNumber, toAccountNumber, amount) >= 0;
+        }
+
+        /**
+         * Moves amount from one account to another, recording the transaction in
+         * the shards that own them. Returns the amount credited, or -1 if the
+         * transfer failed. Both same-shard and cross-shard transfers are recorded
+         * in the metrics here, once.
+         */
+        public double transfer(String fromAccountNumber, String toAccountNumber, double amount) {
+            long start = System.nanoTime();
+            String transferId = "SX-" + nextTransferId.incrementAndGet();
+            AccountShard source = shardFor(fromAccountNumber);
+            AccountShard destination = shardFor(toAccountNumber);
+            double creditAmount = source == destination
+                    ? source.transferLocal(transferId, fromAccountNumber, toAccountNumber, amount)
+                    : transferAcross(transferId, source, fromAccountNumber, destination, toAccountNumber, amount);
+            Metrics.TRANSFER.recordSince(start);
+            if (creditAmount < 0) {
+                Metrics.TRANSFERS_FAILED.increment();
+            }
+            return creditAmount;
+        }
+
+        private double transferAcross(String transferId, AccountShard source, String fromAccountNumber,
+                                      AccountShard destination, String toAccountNumber, double amount) {
+            // Phase one: the destination votes, then the source reserves the funds
+            String toCurrency = destination.prepareCredit(toAccountNumber);
+            if (toCurrency == null) {
+                return -1;
+            }
+            String fromCurrency = source.prepareDebit(transferId, fromAccountNumber, amount);
+            if (fromCurrency == null) {
+                return -1;
+            }
+            double creditAmount = fxRates.convert(amount, fromCurrency, toCurrency);
+            if (Double.isNaN(creditAmount)) {
+                source.abortDebit(transferId);
+                return -1;
+            }
+            
+            // Phase two: both sides agreed, so apply the credit and settle the reservation
+            Transaction transaction = new Transaction(transferId, fromAccountNumber, toAccountNumber, amount,
+                    fromCurrency, creditAmount, "Fund Transfer", new Date());
+            if (!destination.commitCredit(transaction)) {
+                source.abortDebit(transferId);
+                return -1;
+            }
+            source.commitDebit(transaction);
+            return creditAmount;
+        }
+    }
+
+    /**
+     * One partition of a ShardedBank. Cross-shard transfers only reach a shard
+     * through its prepare, commit and abort methods, and reserved funds are held
+     * here until the coordinator settles or aborts them.
+     */
+    static class AccountShard {
+        private final int id;
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager = new TransactionManager();
+        private final Map<String, PreparedDebit> preparedDebits = new ConcurrentHashMap<>();
+
+        /** Shards share the bank's rate table so same-shard and cross-shard conversions agree. */
+        AccountShard(int id, FxRateTable fxRates) {
+            this.id = id;
+            this.accountManager = new AccountManager(fxRates);
+        }
+
+        int getId() {
+            return id;
+        }
+
+        AccountManager getAccountManager() {
+            return accountManager;
+        }
+
+        TransactionManager getTransactionManager() {
+            return transactionManager;
+        }
+
+        void addAccounts(List<Account> batch) {
+            accountManager.addAccounts(batch);
+            for (Account account : batch) {
+                transactionManager.openLedgerAccount(account.getAccountNumber(), account.getBalance());
+            }
+        }
+
+        /** Same-shard fast path: one locked transfer and one local log entry. */
+        double transferLocal(String transferId, String fromAccountNumber, String toAccountNumber, double amount) {
+            double creditAmount = accountManager.applyTransfer(fromAccountNumber, toAccountNumber, amount);
+            if (creditAmount >= 0) {
+                Account source = accountManager.getAccountByNumber(fromAccountNumber);
+                transactionManager.addTransaction(new Transaction(transferId, fromAccountNumber, toAccountNumber, amount,
+                        source.getCurrency(), creditAmount, "Fund Transfer", new Date()));
+            }
+            return creditAmount;
+        }
+
+        /** Votes on an incoming credit. Returns the account's currency, or null to refuse. */
+        String prepareCredit(String accountNumber) {
+            Account account = accountManager.getAccountByNumber(accountNumber);
+            return account != null ? account.getCurrency() : null;
+        }
+
+        /**
+         * Reserves amount by taking it out of the account until the transfer is
+         * committed or aborted. Returns the account's currency, or null to refuse.
+         */
+        String prepareDebit(String transferId, String accountNumber, double amount) {
+            Account account = accountManager.getAccountByNumber(accountNumber);
+            if (account == null || !accountManager.debit(accountNumber, amount)) {
+                return null;
+            }
+            preparedDebits.put(transferId, new PreparedDebit(accountNumber, amount));
+            return account.getCurrency();
+        }
+
+        boolean commitCredit(Transaction transaction) {
+            if (!accountManager.credit(transaction.getToAccount(), transaction.getCreditAmount())) {
+                return false;
+            }
+            transactionManager.addTransactionLeg(transaction, transaction.getToAccount());
+            return true;
+        }
+
+        void commitDebit(Transaction transaction) {
+            if (preparedDebits.remove(transaction.getTransactionId()) != null) {
+                transactionManager.addTransactionLeg(transaction, transaction.getFromAccount());
+            }
+        }
+
+        /** Returns reserved funds to the account. */
+        void abortDebit(String transferId) {
+            PreparedDebit prepared = preparedDebits.remove(transferId);
+            if (prepared != null) {
+                accountManager.credit(prepared.accountNumber, prepared.amount);
+            }
+        }
+
+        /** Funds reserved by a transfer that has not been settled yet. */
+        double getReservedTotal() {
+            return preparedDebits.values().stream().mapToDouble(p -> p.amount).sum();
+        }
+    }
+
+    static class PreparedDebit {
+        private final String accountNumber;
+        private final double amount;
+
+        PreparedDebit(String accountNumber, double amount) {
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+        }
+    }
+
+    // ==================== WORKLOAD ====================
+
+    /**
+     * Command line entry point for generating, recording and replaying load:
+     * <pre>
+     *   --workload run    [users] [operations] [threads]
+     *   --workload record &lt;trace file&gt; [users] [operations]
+     *   --workload replay &lt;trace file&gt; [threads]
+     * </pre>
+     * A trace stores the seed and dataset size along with every operation, so
+     * replaying it rebuilds the same data and issues the same operations in the
+     * same per-thread order, which makes runs comparable across versions.
+     */
+    static class WorkloadHarness {
+        static void run(String[] args) {
+            String mode = args.length > 0 ? args[0] : "run";
+            int threads = Runtime.getRuntime().availableProcessors();
+            try {
+                switch (mode) {
+                    case "run": {
+                        WorkloadConfig config = new WorkloadConfig();
+                        config.users = Benchmarks.intArg(args, 1, config.users);
+                        config.operations = Benchmarks.intArg(args, 2, config.operations);
+                        execute(WorkloadTrace.generate(config), Benchmarks.intArg(args, 3, threads));
+                        break;
+                    }
+                    case "record": {
+                        WorkloadConfig config = new WorkloadConfig();
+                        config.users = Benchmarks.intArg(args, 2, config.users);
+                        config.operations = Benchmarks.intArg(args, 3, config.operations);
+                        WorkloadTrace trace = WorkloadTrace.generate(config);
+                        trace.save(Paths.get(args[1]));
+                        System.out.printf("workload: recorded %,d operations to %s%n", trace.size(), args[1]);
+                        break;
+                    }
+                    case "replay":
+                        execute(WorkloadTrace.load(Paths.get(args[1])), Benchmarks.intArg(args, 2, threads));
+                        break;
+                    default:
+                        System.out.println("Usage: --workload run [users] [operations] [threads]");
+                        System.out.println("       --workload record <trace file> [users] [operations]");
+                        System.out.println("       --workload replay <trace file> [threads]");
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                System.out.println("workload: missing trace file argument");
+            } catch (IOException e) {
+                System.out.println("workload: " + e.getMessage());
+            }
+        }
+
+        private static void execute(WorkloadTrace trace, int threads) {
+            WorkloadConfig config = trace.getConfig();
+            UserManager users = new UserManager();
+            // The trace's Zipf-skewed failed logins would lock the hottest users
+            // out within seconds, and the run would then time throttle rejections
+            // instead of authentication
+            users.setLoginThrottle(null);
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            long start = System.nanoTime();
+            new SyntheticData(config.seed).populate(users, accounts, transactions, config.users,
+                    config.users * config.accountsPerUser, config.initialTransactions);
+            System.out.printf("workload: loaded %,d users and %,d accounts in %.1f ms%n", config.users,
+                    config.users * config.accountsPerUser, (System.nanoTime() - start) / 1_000_000.0);
+
+            WorkloadResult result = new WorkloadRunner(users, accounts, transactions).run(trace, threads);
+            result.print();
+        }
+    }
+
+    /**
+     * Size and shape of a generated workload. Operation weights are relative,
+     * and activity across users and accounts follows a Zipf distribution with
+     * the given exponent, so a few customers generate most of the traffic.
+     */
+    static class WorkloadConfig {
+        long seed = 42L;
+        int users = 1_000_000;
+        int accountsPerUser = 2;
+        int initialTransactions = 1_000_000;
+        int operations = 5_000_000;
+        double zipfExponent = 1.1;
+        int loginWeight = 3_000;
+        int transferWeight = 4_000;
+        int historyWeight = 2_999;
+        int reportWeight = 1;
+        double failedLoginRate = 0.05;
+    }
+
+    enum WorkloadOperation {
+        LOGIN,
+        TRANSFER,
+        HISTORY,
+        REPORT
+    }
+
+    /**
+     * A recorded sequence of operations held in primitive columns: the operation
+     * type, two integer arguments and an amount. For logins the first argument is
+     * the user index and the second is 1 for a wrong password; for transfers they
+     * are the source and destination account indexes; for history views the first
+     * is the account index.
+     */
+    static class WorkloadTrace {
+        private static final int MAGIC = 0x4F425357;
+        private static final int VERSION = 1;
+
+        private final WorkloadConfig config;
+        private final byte[] types;
+        private final int[] first;
+        private final int[] second;
+        private final double[] amounts;
+
+        private WorkloadTrace(WorkloadConfig config, int size) {
+            this.config = config;
+            this.types = new byte[size];
+            this.first = new int[size];
+            this.second = new int[size];
+            this.amounts = new double[size];
+        }
+
+        static WorkloadTrace generate(WorkloadConfig config) {
+            Random random = new Random(config.seed);
+            int accountCount = config.users * config.accountsPerUser;
+            ZipfSampler userSampler = new ZipfSampler(config.users, config.zipfExponent);
+            ZipfSampler accountSampler = new ZipfSampler(accountCount, config.zipfExponent);
+            int totalWeight = config.loginWeight + config.transferWeight + config.historyWeight + config.reportWeight;
+
+            WorkloadTrace trace = new WorkloadTrace(config, config.operations);
+            for (int i = 0; i < config.operations; i++) {
+                int pick = random.nextInt(totalWeight);
+                if (pick < config.loginWeight) {
+                    trace.types[i] = (byte) WorkloadOperation.LOGIN.ordinal();
+                    trace.first[i] = userSampler.sample(random) - 1;
+                    trace.second[i] = random.nextDouble() < config.failedLoginRate ? 1 : 0;
+                } else if ((pick -= config.loginWeight) < config.transferWeight) {
+                    trace.types[i] = (byte) WorkloadOperation.TRANSFER.ordinal();
+                    trace.first[i] = accountSampler.sample(random) - 1;
+                    do {
+                        trace.second[i] = accountSampler.sample(random) - 1;
+                    } while (trace.second[i] == trace.first[i] && accountCount > 1);
+                    trace.amounts[i] = 1 + random.nextInt(100);
+                } else if ((pick -= config.transferWeight) < config.historyWeight) {
+                    trace.types[i] = (byte) WorkloadOperation.HISTORY.ordinal();
+                    trace.first[i] = accountSampler.sample(random) - 1;
+                } else {
+                    trace.types[i] = (byte) WorkloadOperation.REPORT.ordinal();
+                }
+            }
+            return trace;
+        }
+
+        WorkloadConfig getConfig() {
+            return config;
+        }
+
+        int size() {
+            return types.length;
+        }
+
+        WorkloadOperation typeAt(int index) {
+            return WorkloadOperation.values()[types[index]];
+        }
+
+        void save(Path path) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)), 1 << 20))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(config.seed);
+                out.writeInt(config.users);
+                out.writeInt(config.accountsPerUser);
+                out.writeInt(config.initialTransactions);
+                out.writeInt(types.length);
+                for (int i = 0; i < types.length; i++) {
+                    out.writeByte(types[i]);
+                    out.writeInt(first[i]);
+                    out.writeInt(second[i]);
+                    out.writeDouble(amounts[i]);
+                }
+            }
+        }
+
+        static WorkloadTrace load(Path path) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), 1 << 20))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(path + " is not a workload trace");
+                }
+                WorkloadConfig config = new WorkloadConfig();
+                config.seed = in.readLong();
+                config.users = in.readInt();
+                config.accountsPerUser = in.readInt();
+                config.initialTransactions = in.readInt();
+                config.operations = in.readInt();
+                WorkloadTrace trace = new WorkloadTrace(config, config.operations);
+                for (int i = 0; i < config.operations; i++) {
+                    trace.types[i] = in.readByte();
+                    trace.first[i] = in.readInt();
+                    trace.second[i] = in.readInt();
+                    trace.amounts[i] = in.readDouble();
+                }
+                return trace;
+            }
+        }
+    }
+
+    /**
+     * Zipf-distributed ranks in [1, n] using rejection-inversion sampling
+     * (Hormann and Derflinger), which needs constant memory and time per
+     * sample however large n is.
+     */
+    static class ZipfSampler {
+        private final int n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(int n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(Random random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - exponent);
+            if (t < -1) {
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        /** log(1 + x) / x, accurate near zero. */
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /** (exp(x) - 1) / x, accurate near zero. */
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    /**
+     * Drives a trace against the managers from several threads. Operation i is
+     * executed by thread i % threads, so every thread sees the same sequence on
+     * every replay.
+     */
+    static class WorkloadRunner {
+        private final UserManager userManager;
+        private final AccountManager accountManager;
+        private final TransactionManager transactionManager;
+        private final AtomicLong nextTransactionId = new AtomicLong();
+
+        WorkloadRunner(UserManager userManager, AccountManager accountManager, TransactionManager transactionManager) {
+            this.userManager = userManager;
+            this.accountManager = accountManager;
+            this.transactionManager = transactionManager;
+        }
+
+        WorkloadResult run(WorkloadTrace trace, int threads) {
+            WorkloadResult result = new WorkloadResult(threads);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = offset; i < trace.size(); i += threads) {
+                        execute(trace, i, result);
+                    }
+                }, "workload-" + t);
+            }
+            long throttledBefore = Metrics.LOGINS_THROTTLED.sum();
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+            result.throttledLogins = Metrics.LOGINS_THROTTLED.sum() - throttledBefore;
+            return result;
+        }
+
+        private void execute(WorkloadTrace trace, int i, WorkloadResult result) {
+            WorkloadOperation type = trace.typeAt(i);
+            long start = System.nanoTime();
+            boolean success;
+            switch (type) {
+                case LOGIN: {
+                    String username = SyntheticData.username(trace.first[i]);
+                    success = userManager.authenticateUser(username, trace.second[i] == 1 ? "wrong" : "password") != null;
+                    break;
+                }
+                case TRANSFER: {
+                    String from = SyntheticData.accountNumber(trace.first[i]);
+                    String to = SyntheticData.accountNumber(trace.second[i]);
+                    double amount = trace.amounts[i];
+                    double credited = accountManager.transfer(from, to, amount);
+                    success = credited >= 0;
+                    if (success) {
+                        Account source = accountManager.getAccountByNumber(from);
+                        transactionManager.addTransaction(new Transaction("WL-" + nextTransactionId.incrementAndGet(), from, to,
+                                amount, source.getCurrency(), credited, "Workload transfer", new Date()));
+                    }
+                    break;
+                }
+                case HISTORY:
+                    success = transactionManager.getPostings(SyntheticData.accountNumber(trace.first[i])) != null;
+                    break;
+                default:
+                    success = SystemStatistics.compute(userManager, accountManager, transactionManager) != null;
+            }
+            result.record(type, System.nanoTime() - start, success);
+        }
+    }
+
+    static class WorkloadResult {
+        private final int threads;
+        private final Map<WorkloadOperation, LatencyHistogram> latencies = new EnumMap<>(WorkloadOperation.class);
+        private final Map<WorkloadOperation, LongAdder> failures = new EnumMap<>(WorkloadOperation.class);
+        private long elapsedNanos;
+        private long throttledLogins;
+
+        WorkloadResult(int threads) {
+            this.threads = threads;
+            for (WorkloadOperation operation : WorkloadOperation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+                failures.put(operation, new LongAdder());
+            }
+        }
+
+        void record(WorkloadOperation operation, long nanos, boolean success) {
+            latencies.get(operation).record(nanos);
+            if (!success) {
+                failures.get(operation).increment();
+            }
+        }
+
+        void print() {
+            long total = latencies.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+            System.out.printf("workload: %,d operations on %d threads in %.1f ms (%,.0f ops/s)%n", total, threads,
+                    elapsedNanos / 1_000_000.0, total * 1_000_000_000.0 / elapsedNanos);
+            System.out.printf("workload: %-10s %12s %10s %12s %12s %12s%n", "operation", "count", "failed", "p50 us", "p99 us", "max us");
+            for (WorkloadOperation operation : WorkloadOperation.values()) {
+                LatencyHistogram histogram = latencies.get(operation);
+                System.out.printf("workload: %-10s %,12d %,10d %12.1f %12.1f %12.1f%n", operation, histogram.getCount(),
+                        failures.get(operation).sum(), histogram.getPercentileNanos(50) / 1000.0,
+                        histogram.getPercentileNanos(99) / 1000.0, histogram.getMaxNanos() / 1000.0);
+            }
+            if (throttledLogins > 0) {
+                System.out.printf("workload: %,d LOGIN failures were throttle rejections, not password checks%n", throttledLogins);
+            }
+        }
+    }
+
+    // ==================== BENCHMARKS ====================
+
+    /**
+     * Reproducible synthetic users, accounts and transactions for benchmarks.
+     * The same seed always produces the same data.
+     */
+    static class SyntheticData {
+        private static final String[] ACCOUNT_TYPES = {"Checking Account", "Savings Account", "Credit Card", "Loan Account"};
+        private static final String[] DESCRIPTIONS = {"Fund Transfer", "Transfer to savings", "Transfer to checking",
+                "Payment for dinner", "Split bill payment", "Rent", "Groceries", "Utilities"};
+
+        private final Random random;
+
+        SyntheticData(long seed) {
+            this.random = new Random(seed);
+        }
+
+        static String username(int index) {
+            return "user" + index;
+        }
+
+        static String accountNumber(int index) {
+            return "ACC-" + index;
+        }
+
+        /**
+         * Fills the managers in bulk. Accounts are spread round-robin over the
+         * users, and transactions are dated one second apart ending now.
+         */
+        void populate(UserManager users, AccountManager accounts, TransactionManager transactions,
+                      int userCount, int accountCount, int transactionCount) {
+            List<User> userBatch = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                userBatch.add(new User(username(i), "password", "First" + i, "Last" + i, username(i) + "@example.com", UserRole.CUSTOMER));
+            }
+            users.addUsers(userBatch);
+            userBatch = null;
+
+            List<Account> accountBatch = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                double balance = 1_000 + random.nextInt(99_000);
+                accountBatch.add(new Account(accountNumber(i), ACCOUNT_TYPES[random.nextInt(ACCOUNT_TYPES.length)],
+                        username(i % userCount), balance));
+            }
+            accounts.addAccounts(accountBatch);
+            for (Account account : accountBatch) {
+                transactions.openLedgerAccount(account.getAccountNumber(), account.getBalance());
+            }
+            accountBatch = null;
+
+            List<Transaction> transactionBatch = new ArrayList<>(transactionCount);
+            long startTime = System.currentTimeMillis() - transactionCount * 1000L;
+            for (int i = 0; i < transactionCount; i++) {
+                transactionBatch.add(new Transaction("TRX-" + i, accountNumber(random.nextInt(accountCount)),
+                        accountNumber(random.nextInt(accountCount)), 1 + random.nextInt(500),
+                        DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)], new Date(startTime + i * 1000L)));
+            }
+            transactions.addTransactions(transactionBatch);
+        }
+    }
+
+    /**
+     * Micro-benchmarks run with "java OnlineBankingSystem --benchmark [name] [options]".
+     * Each benchmark builds its own synthetic data so results are reproducible
+     * for a given seed.
+     */
+    static class Benchmarks {
+        private static final long SEED = 42L;
+
+        /**
+         * Every measured operation returns a value derived from its result, and
+         * each thread folds them into a checksum that ends up here, so the JIT
+         * cannot drop the work being measured.
+         */
+        private static final AtomicLong SINK = new AtomicLong();
+
+        /** One operation of a contended benchmark, returning a value for the checksum. */
+        interface ContendedOperation {
+            long run(Random random, int index);
+        }
+
+        static void run(String[] args) {
+            String name = args.length > 0 ? args[0] : "all";
+            switch (name) {
+                case "core":
+                    core(args.length > 1 ? args[1] : "1k,1M,10M");
+                    break;
+                case "balance-at":
+                    balanceAt(intArg(args, 1, 10), intArg(args, 2, 5_000_000));
+                    break;
+                case "reconciliation":
+                    reconciliation(intArg(args, 1, 100_000), intArg(args, 2, 10_000_000));
+                    break;
+                case "description-search":
+                    descriptionSearch(intArg(args, 1, 10_000_000));
+                    break;
+                case "user-search":
+                    userSearch(intArg(args, 1, 1_000_000));
+                    break;
+                case "metrics-overhead":
+                    metricsOverhead(intArg(args, 1, Runtime.getRuntime().availableProcessors()));
+                    break;
+                case "snapshot-reads":
+                    snapshotReads(intArg(args, 1, Math.max(2, Runtime.getRuntime().availableProcessors())), intArg(args, 2, 1_000_000));
+                    break;
+                case "change-feed":
+                    changeFeed(intArg(args, 1, 4), intArg(args, 2, 2), intArg(args, 3, 10_000_000));
+                    break;
+                case "statements":
+                    statements(intArg(args, 1, 1_000_000), intArg(args, 2, 10_000_000));
+                    break;
+                case "login-throttle":
+                    loginThrottle(intArg(args, 1, 5_000_000), intArg(args, 2, 4096));
+                    break;
+                case "holds":
+                    holds(intArg(args, 1, 100_000), intArg(args, 2, 1_000));
+                    break;
+                case "tiering":
+                    tiering(intArg(args, 1, 100_000), intArg(args, 2, 10_000_000), intArg(args, 3, 90));
+                    break;
+                case "sharding":
+                    sharding(intArg(args, 1, Math.max(2, Runtime.getRuntime().availableProcessors())), intArg(args, 2, 1_000_000),
+                            intArg(args, 3, 10));
+                    break;
+                case "all":
+                    core("1k,1M,10M");
+                    balanceAt(10, 5_000_000);
+                    reconciliation(100_000, 10_000_000);
+                    descriptionSearch(10_000_000);
+                    userSearch(1_000_000);
+                    metricsOverhead(Runtime.getRuntime().availableProcessors());
+                    snapshotReads(Math.max(2, Runtime.getRuntime().availableProcessors()), 1_000_000);
+                    sharding(Math.max(2, Runtime.getRuntime().availableProcessors()), 1_000_000, 10);
+                    changeFeed(4, 2, 10_000_000);
+                    statements(1_000_000, 10_000_000);
+                    loginThrottle(5_000_000, 4096);
+                    tiering(100_000, 10_000_000, 90);
+                    holds(100_000, 1_000);
+                    break;
+                default:
+                    if (!name.equals("help")) {
+                        System.out.println("Unknown benchmark: " + name);
+                    }
+                    System.out.println("Available:");
+                    System.out.println("  core [scales, e.g. 1k,1M,10M]");
+                    System.out.println("  balance-at [accounts] [postings]");
+                    System.out.println("  reconciliation [accounts] [transactions]");
+                    System.out.println("  description-search [transactions]");
+                    System.out.println("  user-search [users]");
+                    System.out.println("  metrics-overhead [threads]");
+                    System.out.println("  snapshot-reads [threads] [accounts]");
+                    System.out.println("  sharding [threads] [accounts] [cross-shard percent]");
+                    System.out.println("  change-feed [consumers] [producers] [events]");
+                    System.out.println("  statements [accounts] [transactions]");
+                    System.out.println("  login-throttle [attacked usernames] [attacking sources]");
+                    System.out.println("  tiering [accounts] [transactions] [archived percent]");
+                    System.out.println("  holds [holds per account] [settlement batch size]");
+                    System.out.println("  all");
+            }
+        }
+
+        /**
+         * Core manager operations at each scale: account lookup, single-threaded
+         * and contended transfers, transaction history queries and statistics
+         * aggregation. A scale of N means N accounts, N transactions and N / 2 users.
+         */
+        static void core(String scales) {
+            for (String scale : scales.split(",")) {
+                int size = parseScale(scale.trim());
+                System.out.printf("core: scale %s (%,d accounts, %,d transactions)%n", scale.trim(), size, size);
+                try {
+                    coreAtScale(size);
+                } catch (OutOfMemoryError e) {
+                    System.out.println("core: scale " + scale.trim() + " skipped, not enough heap (raise -Xmx)");
+                }
+            }
+        }
+
+        private static void coreAtScale(int size) {
+            UserManager users = new UserManager();
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            long start = System.nanoTime();
+            new SyntheticData(SEED).populate(users, accounts, transactions, Math.max(1, size / 2), size, size);
+            System.out.printf("core:   generated data in %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+
+            String[] accountNumbers = new String[size];
+            for (int i = 0; i < size; i++) {
+                accountNumbers[i] = SyntheticData.accountNumber(i);
+            }
+            Random random = new Random(SEED);
+
+            measure("account lookup", 1_000_000,
+                    i -> accounts.getAccountByNumber(accountNumbers[random.nextInt(size)]).getAccountNumber().length());
+            measure("transfer, 1 thread", 1_000_000,
+                    i -> (long) accounts.transfer(accountNumbers[random.nextInt(size)], accountNumbers[random.nextInt(size)], 1.0));
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            measureContended("transfer, " + threads + " threads, all accounts", threads, 500_000, (r, i) ->
+                    (long) accounts.transfer(accountNumbers[r.nextInt(size)], accountNumbers[r.nextInt(size)], 1.0));
+            int hot = Math.min(size, 16);
+            measureContended("transfer, " + threads + " threads, " + hot + " hot accounts", threads, 500_000, (r, i) ->
+                    (long) accounts.transfer(accountNumbers[r.nextInt(hot)], accountNumbers[r.nextInt(hot)], 1.0));
+            measure("history query", 200_000,
+                    i -> transactions.getTransactionsByAccountNumber(accountNumbers[random.nextInt(size)]).size());
+            measure("ledger postings query", 200_000,
+                    i -> transactions.getPostings(accountNumbers[random.nextInt(size)]).size());
+            measure("statistics aggregation", size >= 1_000_000 ? 1 : 100,
+                    i -> (long) SystemStatistics.compute(users, accounts, transactions).getTotalBalance());
+        }
+
+        /**
+         * Runs the operation in warm-up and measured rounds on the calling thread
+         * and reports the best measured round.
+         */
+        private static void measure(String label, int operations, java.util.function.IntToLongFunction operation) {
+            long best = Long.MAX_VALUE;
+            long checksum = 0;
+            for (int round = 0; round < 8; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    checksum += operation.applyAsLong(i);
+                }
+                long elapsed = System.nanoTime() - start;
+                // The first three rounds are warm-up
+                if (round >= 3) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            SINK.addAndGet(checksum);
+            report(label, operations, best);
+        }
+
+        /**
+         * Runs the operation from several threads at once, each with its own
+         * seeded Random, and reports the best round's aggregate throughput.
+         */
+        private static void measureContended(String label, int threads, int operationsPerThread,
+                                             ContendedOperation operation) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    Random random = new Random(SEED + t);
+                    workers[t] = new Thread(() -> {
+                        long checksum = 0;
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            checksum += operation.run(random, i);
+                        }
+                        SINK.addAndGet(checksum);
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round >= 2) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            report(label, (long) threads * operationsPerThread, best);
+        }
+
+        private static void report(String label, long operations, long nanos) {
+            System.out.printf("core:   %-40s %12.1f ns/op %,16.0f ops/s%n", label, (double) nanos / operations,
+                    operations * 1_000_000_000.0 / nanos);
+        }
+
+        static int parseScale(String scale) {
+            String digits = scale.toLowerCase();
+            int multiplier = 1;
+            if (digits.endsWith("k")) {
+                multiplier = 1_000;
+            } else if (digits.endsWith("m")) {
+                multiplier = 1_000_000;
+            }
+            if (multiplier > 1) {
+                digits = digits.substring(0, digits.length() - 1);
+            }
+            return Integer.parseInt(digits.replace("_", "")) * multiplier;
+        }
+
+        /**
+         * Point-in-time balance lookups over a ledger holding the given number
+         * of postings spread across the given number of accounts.
+         */
+        static void balanceAt(int accountCount, int transactionCount) {
+            Random random = new Random(SEED);
+            Ledger ledger = new Ledger();
+            String[] accountNumbers = new String[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                accountNumbers[i] = "ACC-" + i;
+                ledger.openAccount(accountNumbers[i], 1_000_000.0);
+            }
+
+            long startTime = System.currentTimeMillis() - transactionCount * 1000L;
+            long buildStart = System.nanoTime();
+            for (int i = 0; i < transactionCount; i++) {
+                String from = accountNumbers[random.nextInt(accountCount)];
+                String to = accountNumbers[random.nextInt(accountCount)];
+                ledger.post(new Transaction("TRX-" + i, from, to, 1 + random.nextInt(500), "Benchmark", new Date(startTime + i * 1000L)));
+            }
+            long buildNanos = System.nanoTime() - buildStart;
+            System.out.printf("balance-at: posted %,d transactions across %,d accounts in %.1f ms%n",
+                    transactionCount, accountCount, buildNanos / 1_000_000.0);
+
+            int queries = 1_000_000;
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                long queryStart = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    String account = accountNumbers[random.nextInt(accountCount)];
+                    sink += ledger.balanceAt(account, new Date(startTime + (long) (random.nextDouble() * transactionCount * 1000L)));
+                }
+                long queryNanos = System.nanoTime() - queryStart;
+                System.out.printf("balance-at: round %d, %,d queries, %.1f ns/query%n", round + 1, queries, (double) queryNanos / queries);
+            }
+            System.out.println("(checksum " + (long) sink + ")");
+        }
+
+        /**
+         * Full reconciliation passes over a synthetic transaction log.
+         */
+        static void reconciliation(int accountCount, int transactionCount) {
+            Random random = new Random(SEED);
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            for (int i = 0; i < accountCount; i++) {
+                accounts.addAccount(new Account("ACC-" + i, "Checking Account", "user" + i, 1_000.0));
+                transactions.openLedgerAccount("ACC-" + i, 1_000.0);
+            }
+            List<Transaction> batch = new ArrayList<>(transactionCount);
+            Date date = new Date();
+            for (int i = 0; i < transactionCount; i++) {
+                batch.add(new Transaction("TRX-" + i, "ACC-" + random.nextInt(accountCount),
+                        "ACC-" + random.nextInt(accountCount), 1 + random.nextInt(500), "Benchmark", date));
+            }
+            transactions.addTransactions(batch);
+            batch = null;
+
+            ReconciliationJob job = new ReconciliationJob(accounts, transactions);
+            for (int round = 0; round < 5; round++) {
+                ReconciliationReport report = job.run();
+                System.out.printf("reconciliation: round %d, %,d transactions over %,d accounts in %.1f ms (%,.0f tx/sec), %,d discrepancies%n",
+                        round + 1, report.getTransactionsScanned(), report.getAccountsChecked(),
+                        report.getElapsedNanos() / 1_000_000.0,
+                        report.getTransactionsScanned() * 1_000_000_000.0 / report.getElapsedNanos(),
+                        report.getDiscrepancies().size());
+            }
+        }
+
+        /**
+         * Term, prefix and filtered description queries over a synthetic log whose
+         * descriptions draw from a skewed vocabulary.
+         */
+        static void descriptionSearch(int transactionCount) {
+            Random random = new Random(SEED);
+            String[] common = {"transfer", "payment", "savings", "checking", "bill", "split", "refund"};
+            String[] rare = {"dinner", "rent", "groceries", "utilities", "tuition", "insurance", "rental", "dining"};
+            TransactionManager transactions = new TransactionManager();
+            List<Transaction> batch = new ArrayList<>(transactionCount);
+            long startTime = System.currentTimeMillis() - transactionCount * 1000L;
+            for (int i = 0; i < transactionCount; i++) {
+                String description = common[random.nextInt(common.length)] + " "
+                        + (random.nextInt(1000) == 0 ? rare[random.nextInt(rare.length)] : "ref" + random.nextInt(100_000));
+                batch.add(new Transaction("TRX-" + i, "ACC-" + random.nextInt(10_000), "ACC-" + random.nextInt(10_000),
+                        1 + random.nextInt(500), description, new Date(startTime + i * 1000L)));
+            }
+            long indexStart = System.nanoTime();
+            transactions.addTransactions(batch);
+            System.out.printf("description-search: indexed %,d transactions in %.1f ms%n",
+                    transactionCount, (System.nanoTime() - indexStart) / 1_000_000.0);
+
+            TransactionQuery filtered = new TransactionQuery("rent*");
+            filtered.setMinAmount(100.0);
+            filtered.setMaxAmount(200.0);
+            TransactionQuery[] queries = {new TransactionQuery("dinner"), new TransactionQuery("rent*"),
+                    new TransactionQuery("payment dining"), filtered};
+            for (TransactionQuery query : queries) {
+                int iterations = 200;
+                long matches = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    matches = transactions.search(query).size();
+                }
+                System.out.printf("description-search: \"%s\"%s -> %,d matches, %.3f ms/query%n", query.getText(),
+                        query == filtered ? " [amount 100-200]" : "", matches,
+                        (System.nanoTime() - start) / 1_000_000.0 / iterations);
+            }
+        }
+
+        /**
+         * Prefix and fuzzy user directory lookups over synthetic customers.
+         */
+        static void userSearch(int userCount) {
+            Random random = new Random(SEED);
+            String[] firstNames = {"John", "Jane", "Maria", "Wei", "Aisha", "Carlos", "Olga", "Hiro", "Fatima", "Liam",
+                    "Noah", "Emma", "Ava", "Mateo", "Priya", "Yusuf", "Ingrid", "Kofi", "Sofia", "Ivan"};
+            String[] syllables = {"an", "ber", "cor", "dal", "en", "fitz", "gar", "hol", "is", "jen", "kow", "lan",
+                    "mar", "nak", "or", "pet", "quin", "ros", "sen", "tor", "ul", "van", "wick", "yam", "zel"};
+            UserManager users = new UserManager();
+            List<User> batch = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                String lastName = syllables[random.nextInt(syllables.length)] + syllables[random.nextInt(syllables.length)]
+                        + syllables[random.nextInt(syllables.length)];
+                lastName = Character.toUpperCase(lastName.charAt(0)) + lastName.substring(1);
+                String firstName = firstNames[random.nextInt(firstNames.length)];
+                String username = firstName.toLowerCase() + "." + lastName.toLowerCase() + i;
+                batch.add(new User(username, "password", firstName, lastName, username + "@example.com", UserRole.CUSTOMER));
+            }
+            long indexStart = System.nanoTime();
+            users.addUsers(batch);
+            System.out.printf("user-search: indexed %,d users in %.1f ms%n", userCount, (System.nanoTime() - indexStart) / 1_000_000.0);
+
+            String[][] queries = {{"jane", "prefix"}, {"maria.dal", "prefix"}, {"jane marquin", "prefix"},
+                    {"kowroswick", "prefix"}, {"kowroswik", "fuzzy"}, {"jane marqiun", "fuzzy"}};
+            for (String[] query : queries) {
+                boolean fuzzy = query[1].equals("fuzzy");
+                int iterations = 50;
+                int matches = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    matches = users.searchUsers(query[0], fuzzy, 0, 20).getTotalMatches();
+                }
+                System.out.printf("user-search: %s \"%s\" -> %,d matches, %.3f ms/query%n", query[1], query[0], matches,
+                        (System.nanoTime() - start) / 1_000_000.0 / iterations);
+            }
+        }
+
+        /**
+         * Cost of recording one timed event (two clock reads plus the histogram
+         * update), from one thread and from several threads sharing a histogram.
+         */
+        static void metricsOverhead(int threads) {
+            int events = 20_000_000;
+            long clockStart = System.nanoTime();
+            long clockSink = 0;
+            for (int i = 0; i < events; i++) {
+                clockSink += System.nanoTime();
+            }
+            System.out.printf("metrics-overhead: clock read alone %.1f ns (checksum %d)%n",
+                    (double) (System.nanoTime() - clockStart) / events, clockSink & 1);
+            for (int round = 0; round < 3; round++) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                long start = System.nanoTime();
+                for (int i = 0; i < events; i++) {
+                    histogram.recordSince(System.nanoTime());
+                }
+                System.out.printf("metrics-overhead: 1 thread, %.1f ns/event%n", (double) (System.nanoTime() - start) / events);
+            }
+
+            LatencyHistogram shared = new LatencyHistogram();
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < events / threads; i++) {
+                        shared.recordSince(System.nanoTime());
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("metrics-overhead: %d threads, %.1f ns/event per thread (p99 of recorded gaps %d ns)%n",
+                    threads, (double) elapsed * threads / events, shared.getPercentileNanos(99));
+        }
+
+        /**
+         * A 95/5 mix of customer balance reads and transfers from several threads,
+         * with reads going through versioned snapshots and, for comparison, through
+         * per-account locks. Then full-table snapshot totals are taken while
+         * transfers run; every account is in one currency and transfers move whole
+         * units, so each snapshot total must equal the opening total exactly.
+         */
+        static void snapshotReads(int threads, int accountCount) {
+            UserManager users = new UserManager();
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            int userCount = Math.max(1, accountCount / 2);
+            new SyntheticData(SEED).populate(users, accounts, transactions, userCount, accountCount, 0);
+            String[] accountNumbers = new String[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                accountNumbers[i] = SyntheticData.accountNumber(i);
+            }
+            int hot = Math.min(accountCount, 64);
+
+            measureContended("95/5 snapshot reads, " + threads + " threads", threads, 500_000, (r, i) -> {
+                if (r.nextInt(100) < 95) {
+                    double total = 0;
+                    for (double balance : accounts.getBalances(accounts.getAccountsByUsername(SyntheticData.username(r.nextInt(Math.min(userCount, hot)))))) {
+                        total += balance;
+                    }
+                    return (long) total;
+                }
+                return (long) accounts.transfer(accountNumbers[r.nextInt(hot)], accountNumbers[r.nextInt(hot)], 1.0);
+            });
+            measureContended("95/5 locked reads, " + threads + " threads", threads, 500_000, (r, i) -> {
+                if (r.nextInt(100) < 95) {
+                    double total = 0;
+                    for (Account account : accounts.getAccountsByUsername(SyntheticData.username(r.nextInt(Math.min(userCount, hot))))) {
+                        synchronized (account) {
+                            total += account.getBalance();
+                        }
+                    }
+                    return (long) total;
+                }
+                return (long) accounts.transfer(accountNumbers[r.nextInt(hot)], accountNumbers[r.nextInt(hot)], 1.0);
+            });
+
+            double expected;
+            try (AccountSnapshot snapshot = accounts.snapshot()) {
+                expected = snapshot.getAccounts().stream().mapToDouble(snapshot::balanceOf).sum();
+            }
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread[] writers = new Thread[Math.max(1, threads - 1)];
+            for (int t = 0; t < writers.length; t++) {
+                Random random = new Random(SEED + t);
+                writers[t] = new Thread(() -> {
+                    while (running.get()) {
+                        accounts.transfer(accountNumbers[random.nextInt(accountCount)], accountNumbers[random.nextInt(accountCount)], 1.0);
+                    }
+                });
+                writers[t].start();
+            }
+            int[] mismatches = new int[1];
+            measure("snapshot total of " + accountCount + " accounts", 3, i -> {
+                try (AccountSnapshot snapshot = accounts.snapshot()) {
+                    double total = snapshot.getAccounts().stream().mapToDouble(snapshot::balanceOf).sum();
+                    if (total != expected) {
+                        mismatches[0]++;
+                    }
+                    return (long) total;
+                }
+            });
+            running.set(false);
+            for (Thread writer : writers) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            System.out.printf("core:   snapshot totals under %d writer threads: %d inconsistent%n", writers.length, mismatches[0]);
+        }
+
+        /**
+         * Contended transfer throughput at 1, 2, 4, ... shards up to twice the
+         * thread count. The given percentage of transfers picks accounts at random
+         * across all shards; the rest stay within one randomly chosen shard.
+         */
+        static void sharding(int threads, int accountCount, int crossShardPercent) {
+            List<Account> batch = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                batch.add(new Account(SyntheticData.accountNumber(i), "Checking Account", SyntheticData.username(i), 1_000_000));
+            }
+            for (int shardCount = 1; shardCount <= threads * 2; shardCount *= 2) {
+                ShardedBank bank = new ShardedBank(shardCount);
+                bank.addAccounts(batch);
+                List<List<String>> members = new ArrayList<>();
+                for (int i = 0; i < shardCount; i++) {
+                    members.add(new ArrayList<>());
+                }
+                for (Account account : batch) {
+                    members.get(bank.shardFor(account.getAccountNumber()).getId()).add(account.getAccountNumber());
+                }
+                String[][] byShard = new String[shardCount][];
+                for (int i = 0; i < shardCount; i++) {
+                    byShard[i] = members.get(i).toArray(new String[0]);
+                }
+                measureContended("transfer, " + shardCount + " shards, " + threads + " threads", threads, 200_000, (r, i) -> {
+                    if (r.nextInt(100) < crossShardPercent) {
+                        String[] from = byShard[r.nextInt(byShard.length)];
+                        String[] to = byShard[r.nextInt(byShard.length)];
+                        return (long) bank.transfer(from[r.nextInt(from.length)], to[r.nextInt(to.length)], 1.0);
+                    }
+                    String[] shard = byShard[r.nextInt(byShard.length)];
+                    return (long) bank.transfer(shard[r.nextInt(shard.length)], shard[r.nextInt(shard.length)], 1.0);
+                });
+            }
+        }
+
+        /**
+         * Events per second through the change feed with several consumer
+         * threads, first with every consumer applying back-pressure and then with
+         * every consumer allowed to drop events, which reports how many it missed.
+         */
+        static void changeFeed(int consumers, int producers, int events) {
+            for (BackPressure backPressure : BackPressure.values()) {
+                for (int round = 0; round < 3; round++) {
+                    ChangeFeed feed = new ChangeFeed(1 << 16);
+                    List<ChangeFeed.Subscription> subscriptions = new ArrayList<>();
+                    long[] checksums = new long[consumers];
+                    for (int c = 0; c < consumers; c++) {
+                        int consumer = c;
+                        ChangeFeed.Subscription subscription = feed.subscribe("bench-" + c, backPressure);
+                        subscriptions.add(subscription);
+                        subscription.start(event -> checksums[consumer] += event.getSequence());
+                    }
+                    Thread[] workers = new Thread[producers];
+                    long start = System.nanoTime();
+                    for (int p = 0; p < producers; p++) {
+                        workers[p] = new Thread(() -> {
+                            for (int i = 0; i < events / producers; i++) {
+                                feed.publish(ChangeType.TRANSFER, "ACC-1", "ACC-2", i, i, FxRateTable.BASE_CURRENCY);
+                            }
+                        });
+                        workers[p].start();
+                    }
+                    for (Thread worker : workers) {
+                        try {
+                            worker.join();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    long total = (long) (events / producers) * producers;
+                    for (ChangeFeed.Subscription subscription : subscriptions) {
+                        while (subscription.getLag() > 0) {
+                            Thread.yield();
+                        }
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    long missed = 0;
+                    for (ChangeFeed.Subscription subscription : subscriptions) {
+                        missed += subscription.getMissed();
+                        subscription.close();
+                    }
+                    System.out.printf("change-feed: %s, %d producers, %d consumers: %,.0f events/s published, %,d missed by consumers%n",
+                            backPressure, producers, consumers, total * 1_000_000_000.0 / elapsed, missed);
+                }
+            }
+        }
+
+        /**
+         * Writes a month of statements for every account to a temporary file and
+         * reports throughput and how much heap the run left behind.
+         */
+        static void statements(int accountCount, int transactionCount) {
+            UserManager users = new UserManager();
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            new SyntheticData(SEED).populate(users, accounts, transactions, Math.max(1, accountCount / 2), accountCount, transactionCount);
+            StatementJob job = new StatementJob(accounts, transactions);
+            int month = MonthlyStatement.monthOf(System.currentTimeMillis());
+            Runtime runtime = Runtime.getRuntime();
+            try {
+                Path path = Files.createTempFile("statements", ".bin");
+                try {
+                    for (int round = 0; round < 3; round++) {
+                        System.gc();
+                        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+                        TransferReport report = job.run(month, path);
+                        System.gc();
+                        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+                        System.out.printf("%s, %,d bytes written, %,d KB retained afterwards%n", report, Files.size(path),
+                                Math.max(0, heapAfter - heapBefore) / 1024);
+                    }
+                } finally {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                System.out.println("statements: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Archives the given percentage of the oldest transactions into segment
+         * files and reports the heap retained before and after, the size on
+         * disk, and the cost of account history and date-filtered searches over
+         * transactions that are in memory and over archived ones.
+         */
+        static void tiering(int accountCount, int transactionCount, int archivePercent) {
+            UserManager users = new UserManager();
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            new SyntheticData(SEED).populate(users, accounts, transactions, Math.max(1, accountCount / 2), accountCount, transactionCount);
+            // Synthetic transactions are one second apart and end now
+            long firstTime = System.currentTimeMillis() - transactionCount * 1000L;
+            Date cutoff = new Date(firstTime + transactionCount * 10L * archivePercent);
+            Runtime runtime = Runtime.getRuntime();
+            Path directory = null;
+            try {
+                directory = Files.createTempDirectory("segments");
+                System.gc();
+                long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+                measureTieredQueries("in memory", transactions, accountCount, firstTime, cutoff.getTime());
+
+                long start = System.nanoTime();
+                int archived = transactions.archiveOlderThan(directory, cutoff);
+                long elapsed = System.nanoTime() - start;
+                System.gc();
+                long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+                long bytes = 0;
+                for (TransactionSegment segment : transactions.getSegments()) {
+                    bytes += Files.size(segment.getPath());
+                }
+                System.out.printf("tiering: archived %,d of %,d transactions in %.1f ms into %,d segments, %,d bytes (%.1f bytes/txn)%n",
+                        archived, transactionCount, elapsed / 1_000_000.0, transactions.getSegments().size(), bytes,
+                        archived > 0 ? (double) bytes / archived : 0);
+                System.out.printf("tiering: heap retained %,d KB before, %,d KB after%n", heapBefore / 1024, heapAfter / 1024);
+                measureTieredQueries("archived", transactions, accountCount, firstTime, cutoff.getTime());
+            } catch (IOException e) {
+                System.out.println("tiering: " + e.getMessage());
+            } finally {
+                if (directory != null) {
+                    for (TransactionSegment segment : transactions.getSegments()) {
+                        segment.getPath().toFile().delete();
+                    }
+                    directory.toFile().delete();
+                }
+            }
+        }
+
+        /** History, one-hour date searches and description searches of random accounts, all within the first, archivable part. */
+        private static void measureTieredQueries(String label, TransactionManager transactions, int accountCount,
+                                                 long firstTime, long cutoff) {
+            Random random = new Random(SEED);
+            measure("tiering " + label + " account history", 1_000,
+                    i -> transactions.getTransactionsByAccountNumber(SyntheticData.accountNumber(random.nextInt(accountCount))).size());
+            long span = Math.max(1, cutoff - firstTime - TimeUnit.HOURS.toMillis(1));
+            measure("tiering " + label + " 1h date search", 100, i -> {
+                TransactionQuery query = new TransactionQuery(null);
+                long from = firstTime + (long) (random.nextDouble() * span);
+                query.setStartDate(new Date(from));
+                query.setEndDate(new Date(from + TimeUnit.HOURS.toMillis(1)));
+                return transactions.search(query).size();
+            });
+            measure("tiering " + label + " account text search", 1_000, i -> {
+                TransactionQuery query = new TransactionQuery("rent");
+                query.setAccountNumber(SyntheticData.accountNumber(random.nextInt(accountCount)));
+                query.setEndDate(new Date(cutoff));
+                return transactions.search(query).size();
+            });
+        }
+
+        /**
+         * Transfers out of an account with no holds and out of one carrying the
+         * given number of outstanding holds, showing the available balance check
+         * does not grow with them, then the cost of authorizing and capturing
+         * holds and of settling them in batches of one and of the given size.
+         */
+        static void holds(int holdsPerAccount, int batchSize) {
+            int accountCount = 1_000;
+            UserManager users = new UserManager();
+            AccountManager accounts = new AccountManager();
+            TransactionManager transactions = new TransactionManager();
+            new SyntheticData(SEED).populate(users, accounts, transactions, accountCount / 2, accountCount, 0);
+            HoldManager holds = new HoldManager(accounts, transactions);
+            String plain = SyntheticData.accountNumber(0);
+            String busy = SyntheticData.accountNumber(1);
+            String payee = SyntheticData.accountNumber(2);
+            accounts.credit(plain, 1e12);
+            accounts.credit(busy, 1e12);
+            for (int i = 0; i < holdsPerAccount; i++) {
+                holds.authorize(busy, payee, 0.01, "hold", HoldManager.DEFAULT_HOLD_MILLIS);
+            }
+            measure("holds transfer, 0 holds", 1_000_000, i -> accounts.transferFunds(plain, payee, 0.01) ? 1 : 0);
+            measure(String.format("holds transfer, %,d holds", holdsPerAccount), 1_000_000,
+                    i -> accounts.transferFunds(busy, payee, 0.01) ? 1 : 0);
+
+            int operations = 200_000;
+            String[] sources = new String[operations];
+            Random random = new Random(SEED);
+            for (int i = 0; i < operations; i++) {
+                sources[i] = SyntheticData.accountNumber(3 + random.nextInt(accountCount - 3));
+            }
+            for (int size : new int[] {1, batchSize}) {
+                long start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    Hold hold = holds.authorize(sources[i], payee, 0.01, "purchase", HoldManager.DEFAULT_HOLD_MILLIS);
+                    holds.capture(hold.getId(), 0.01);
+                }
+                long captured = System.nanoTime() - start;
+                start = System.nanoTime();
+                while (holds.settle(size) > 0) {
+                    // Drain the capture queue
+                }
+                long settled = System.nanoTime() - start;
+                report("holds authorize + capture", operations, captured);
+                report("holds settle, batch " + size, operations, settled);
+            }
+            System.out.printf("holds: %,d outstanding, %,d transactions logged%n", holds.getOutstandingCount(),
+                    transactions.getTransactionCount());
+        }
+
+        /**
+         * A credential-stuffing run against 100,000 real users: the given number
+         * of distinct usernames, mostly made up but one in twenty belonging to the
+         * first half of the real users, are tried with wrong passwords spread over
+         * the given number of sources. Then the other, unattacked half logs in
+         * correctly from their own addresses. Reports the cost per attempt, how
+         * many attempts were turned away before the user lookup and how many
+         * unattacked users were throttled anyway by sketch collisions. Rounds
+         * share one throttle window, so each round adds to the sketch load.
+         */
+        static void loginThrottle(int attackedUsernames, int sourceCount) {
+            int userCount = 100_000;
+            UserManager users = new UserManager();
+            List<User> batch = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                batch.add(new User(SyntheticData.username(i), "password", "First" + i, "Last" + i, "u" + i + "@example.com", UserRole.CUSTOMER));
+            }
+            users.addUsers(batch);
+            String[] targets = new String[attackedUsernames];
+            for (int i = 0; i < attackedUsernames; i++) {
+                // One in twenty guesses hits a real username
+                targets[i] = i % 20 == 0 ? SyntheticData.username(i / 20 % (userCount / 2)) : "victim" + i;
+            }
+            Random random = new Random(SEED);
+            for (int round = 0; round < 3; round++) {
+                Metrics.reset();
+                long start = System.nanoTime();
+                for (int i = 0; i < attackedUsernames; i++) {
+                    users.authenticateUser(targets[i], "guess" + (i & 7), "10." + random.nextInt(sourceCount));
+                }
+                long elapsed = System.nanoTime() - start;
+                long throttled = Metrics.LOGINS_THROTTLED.sum();
+                int locked = 0;
+                for (int i = userCount / 2; i < userCount; i++) {
+                    if (users.authenticateUser(SyntheticData.username(i), "password", "192.168." + i) == null) {
+                        locked++;
+                    }
+                }
+                System.out.printf("login-throttle: %,d attacks at %.0f ns each, %,d rejected before lookup, %,d of %,d unattacked users throttled%n",
+                        attackedUsernames, (double) elapsed / attackedUsernames, throttled, locked, userCount / 2);
+            }
+        }
+
+        static int intArg(String[] args, int index, int defaultValue) {
+            if (args.length > index) {
+                try {
+                    return Integer.parseInt(args[index].replace("_", ""));
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring invalid number: " + args[index]);
+                }
+            }
+            return defaultValue;
+        }
+    }
+}
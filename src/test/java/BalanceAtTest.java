@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BalanceAtTest {
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Test
+    void balanceAtIncludesPostingsDatedExactlyAtTheMoment() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("B", 0);
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T1", "A", "B", 10, "Rent", new Date(T0)));
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T2", "A", "B", 15, "Rent", new Date(T0 + 1000)));
+
+        assertEquals(100, transactions.balanceAt("A", new Date(T0 - 1)), 1e-9);
+        assertEquals(90, transactions.balanceAt("A", new Date(T0)), 1e-9);
+        assertEquals(90, transactions.balanceAt("A", new Date(T0 + 999)), 1e-9);
+        assertEquals(75, transactions.balanceAt("A", new Date(T0 + 1000)), 1e-9);
+        assertEquals(25, transactions.balanceAt("B", new Date(T0 + 5000)), 1e-9);
+        assertEquals(0, transactions.balanceAt("UNKNOWN", new Date(T0)), 1e-9);
+    }
+
+    @Test
+    void balanceAtMatchesAReplayOfHistory() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        Random random = new Random(7);
+        int accounts = 5;
+        for (int i = 0; i < accounts; i++) {
+            transactions.openLedgerAccount("ACC-" + i, 1_000);
+        }
+        long[] times = new long[2_000];
+        String[] from = new String[times.length];
+        String[] to = new String[times.length];
+        double[] amounts = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            // Dates arrive out of order, so many postings are back-dated
+            times[i] = T0 + random.nextInt(1_000_000);
+            from[i] = "ACC-" + random.nextInt(accounts);
+            to[i] = "ACC-" + random.nextInt(accounts);
+            amounts[i] = random.nextInt(10_000) / 100.0;
+            transactions.addTransaction(new OnlineBankingSystem.Transaction("T" + i, from[i], to[i], amounts[i], "x", new Date(times[i])));
+        }
+
+        for (int probe = 0; probe < 200; probe++) {
+            long moment = T0 + random.nextInt(1_000_000);
+            String account = "ACC-" + random.nextInt(accounts);
+            double expected = 1_000;
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] <= moment) {
+                    if (from[i].equals(account)) {
+                        expected -= amounts[i];
+                    }
+                    if (to[i].equals(account)) {
+                        expected += amounts[i];
+                    }
+                }
+            }
+            assertEquals(expected, transactions.balanceAt(account, new Date(moment)), 1e-6);
+        }
+    }
+
+    @Test
+    void balanceAtReadsArchivedHistory(@TempDir Path directory) throws Exception {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("B", 0);
+        for (int i = 0; i < 100; i++) {
+            transactions.addTransaction(new OnlineBankingSystem.Transaction("T" + i, "A", "B", 1, "x", new Date(T0 + i * 1000L)));
+        }
+        double[] before = new double[120];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = transactions.balanceAt("A", new Date(T0 - 500 + i * 1000L));
+        }
+
+        assertEquals(60, transactions.archiveOlderThan(directory, new Date(T0 + 60_000)));
+        for (int i = 0; i < before.length; i++) {
+            assertEquals(before[i], transactions.balanceAt("A", new Date(T0 - 500 + i * 1000L)), 1e-9);
+        }
+        assertEquals(0, transactions.getLedgerBalance("A"), 1e-9);
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class ChangeFeedTest {
+    private static void publish(OnlineBankingSystem.ChangeFeed feed, int value) {
+        feed.publish(OnlineBankingSystem.ChangeType.TRANSFER, "A", "B", value, value, "USD");
+    }
+
+    @Test
+    void eventsWithoutSubscribersAreNotPublished() {
+        OnlineBankingSystem.ChangeFeed feed = new OnlineBankingSystem.ChangeFeed(8);
+        publish(feed, 1);
+        assertEquals(0, feed.getPublishedCount());
+
+        // A subscription starts at the next event
+        OnlineBankingSystem.ChangeFeed.Subscription subscription = feed.subscribe("late", OnlineBankingSystem.BackPressure.BLOCK);
+        publish(feed, 2);
+        List<Double> amounts = new ArrayList<>();
+        assertEquals(1, subscription.poll(event -> amounts.add(event.getAmount()), 10));
+        assertEquals(2, amounts.get(0), 0);
+        assertEquals(0, subscription.getLag());
+    }
+
+    @Test
+    void blockingSubscriberReceivesEveryEventInOrder() throws InterruptedException {
+        OnlineBankingSystem.ChangeFeed feed = new OnlineBankingSystem.ChangeFeed(8);
+        OnlineBankingSystem.ChangeFeed.Subscription subscription = feed.subscribe("audit", OnlineBankingSystem.BackPressure.BLOCK);
+        AtomicLong received = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+        Thread consumer = subscription.start(event -> {
+            long expected = received.getAndIncrement();
+            if (event.getSequence() != expected || event.getAmount() != expected % 1_000) {
+                outOfOrder.incrementAndGet();
+            }
+        });
+
+        // Far more events than slots, so the producer must wait for the consumer
+        int events = 100_000;
+        for (int i = 0; i < events; i++) {
+            publish(feed, i % 1_000);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.get() < events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        subscription.close();
+        consumer.join(1_000);
+
+        assertEquals(events, received.get());
+        assertEquals(0, outOfOrder.get());
+        assertEquals(0, subscription.getMissed());
+    }
+
+    @Test
+    void droppingSubscriberSkipsToTheOldestEventAndCountsTheRest() {
+        OnlineBankingSystem.ChangeFeed feed = new OnlineBankingSystem.ChangeFeed(8);
+        OnlineBankingSystem.ChangeFeed.Subscription subscription = feed.subscribe("dashboard", OnlineBankingSystem.BackPressure.DROP);
+        int events = feed.getCapacity() * 3 + 5;
+        for (int i = 0; i < events; i++) {
+            publish(feed, i);
+        }
+
+        List<Long> sequences = new ArrayList<>();
+        subscription.poll(event -> sequences.add(event.getSequence()), Integer.MAX_VALUE);
+
+        assertTrue(sequences.size() <= feed.getCapacity());
+        assertEquals(events - 1, (long) sequences.get(sequences.size() - 1));
+        for (int i = 1; i < sequences.size(); i++) {
+            assertEquals(sequences.get(i - 1) + 1, (long) sequences.get(i));
+        }
+        assertEquals(events, subscription.getMissed() + sequences.size());
+        assertEquals(0, subscription.getLag());
+    }
+
+    @Test
+    void droppingSubscriberDoesNotHoldBackProducers() {
+        OnlineBankingSystem.ChangeFeed feed = new OnlineBankingSystem.ChangeFeed(8);
+        OnlineBankingSystem.ChangeFeed.Subscription subscription = feed.subscribe("dashboard", OnlineBankingSystem.BackPressure.DROP);
+        // Would block forever if a subscriber that never polls gated the ring
+        for (int i = 0; i < 10_000; i++) {
+            publish(feed, i);
+        }
+        assertEquals(10_000, feed.getPublishedCount());
+        assertEquals(10_000, subscription.getLag());
+    }
+
+    @Test
+    void accountManagerPublishesAddedAccountsAndTransfers() {
+        OnlineBankingSystem.ChangeFeed feed = new OnlineBankingSystem.ChangeFeed(16);
+        OnlineBankingSystem.AccountManager accounts = new OnlineBankingSystem.AccountManager();
+        accounts.setChangeFeed(feed);
+        OnlineBankingSystem.ChangeFeed.Subscription subscription = feed.subscribe("audit", OnlineBankingSystem.BackPressure.BLOCK);
+
+        accounts.addAccount(new OnlineBankingSystem.Account("A", "Checking Account", "alice", 100));
+        accounts.addAccount(new OnlineBankingSystem.Account("B", "Checking Account", "bob", 0));
+        assertTrue(accounts.transferFunds("A", "B", 40));
+        assertFalse(accounts.transferFunds("A", "B", 400));
+
+        List<String> seen = new ArrayList<>();
+        subscription.poll(event -> seen.add(event.getType() + " " + event.getKey() + " " + event.getCounterparty()
+                + " " + event.getCreditAmount()), 10);
+        List<String> expected = new ArrayList<>();
+        expected.add("ACCOUNT_ADDED A alice 100.0");
+        expected.add("ACCOUNT_ADDED B bob 0.0");
+        expected.add("TRANSFER A B 40.0");
+        assertEquals(expected, seen);
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class DescriptionIndexTest {
+    private static OnlineBankingSystem.DescriptionIndex index(String... descriptions) {
+        OnlineBankingSystem.DescriptionIndex index = new OnlineBankingSystem.DescriptionIndex();
+        for (int i = 0; i < descriptions.length; i++) {
+            index.add(i, descriptions[i]);
+        }
+        return index;
+    }
+
+    @Test
+    void everyWordMustMatchIgnoringCaseAndPunctuation() {
+        OnlineBankingSystem.DescriptionIndex index = index("Rent payment", "Payment for dinner", "rent, March", "Groceries");
+
+        assertArrayEquals(new int[] {0, 2}, index.search("RENT"));
+        assertArrayEquals(new int[] {0}, index.search("rent payment"));
+        assertArrayEquals(new int[] {1}, index.search("dinner, payment!"));
+        assertArrayEquals(new int[0], index.search("rent groceries"));
+    }
+
+    @Test
+    void trailingStarMatchesByPrefix() {
+        OnlineBankingSystem.DescriptionIndex index = index("Payment", "Paycheck", "Pay", "Rent");
+
+        assertArrayEquals(new int[] {0, 1, 2}, index.search("pay*"));
+        assertArrayEquals(new int[] {2}, index.search("pay"));
+        assertArrayEquals(new int[0], index.search("payz*"));
+    }
+
+    @Test
+    void blankQueryHasNoTextFilterButPunctuationMatchesNothing() {
+        OnlineBankingSystem.DescriptionIndex index = index("Rent", "Groceries");
+
+        assertNull(index.search(null));
+        assertNull(index.search("   "));
+        assertArrayEquals(new int[0], index.search("*"));
+        assertArrayEquals(new int[0], index.search("!! ??"));
+    }
+
+    @Test
+    void gallopingIntersectionMatchesASetIntersection() {
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            TreeSet<Integer> small = new TreeSet<>();
+            TreeSet<Integer> large = new TreeSet<>();
+            int range = 1 + random.nextInt(10_000);
+            for (int i = random.nextInt(50); i > 0; i--) {
+                small.add(random.nextInt(range));
+            }
+            for (int i = random.nextInt(5_000); i > 0; i--) {
+                large.add(random.nextInt(range));
+            }
+            OnlineBankingSystem.IntList largeList = new OnlineBankingSystem.IntList();
+            for (int value : large) {
+                largeList.add(value);
+            }
+            TreeSet<Integer> expected = new TreeSet<>(small);
+            expected.retainAll(large);
+
+            int[] result = OnlineBankingSystem.DescriptionIndex.intersect(
+                    small.stream().mapToInt(Integer::intValue).toArray(), largeList);
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), result);
+        }
+    }
+
+    @Test
+    void transactionSearchCombinesTextWithTheOtherFilters() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        long t0 = 1_700_000_000_000L;
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T1", "A", "B", 10, "Rent payment", new Date(t0)));
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T2", "C", "B", 10, "Rent payment", new Date(t0 + 1000)));
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T3", "A", "C", 500, "Rent deposit", new Date(t0 + 2000)));
+
+        OnlineBankingSystem.TransactionQuery query = new OnlineBankingSystem.TransactionQuery("rent");
+        query.setAccountNumber("A");
+        assertEquals(Arrays.asList("T1", "T3"), ids(transactions.search(query)));
+
+        query.setMaxAmount(100.0);
+        assertEquals(Arrays.asList("T1"), ids(transactions.search(query)));
+
+        OnlineBankingSystem.TransactionQuery dated = new OnlineBankingSystem.TransactionQuery("pay*");
+        dated.setStartDate(new Date(t0 + 1000));
+        assertEquals(Arrays.asList("T2"), ids(transactions.search(dated)));
+    }
+
+    private static List<String> ids(List<OnlineBankingSystem.Transaction> transactions) {
+        String[] ids = new String[transactions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = transactions.get(i).getTransactionId();
+        }
+        Arrays.sort(ids);
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,140 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HoldManagerTest {
+    private static final long LONG_HOLD = 60_000;
+
+    private OnlineBankingSystem.AccountManager accounts;
+    private OnlineBankingSystem.TransactionManager transactions;
+    private OnlineBankingSystem.HoldManager holds;
+
+    @BeforeEach
+    void setUp() {
+        accounts = new OnlineBankingSystem.AccountManager();
+        transactions = new OnlineBankingSystem.TransactionManager();
+        holds = new OnlineBankingSystem.HoldManager(accounts, transactions);
+        accounts.addAccount(new OnlineBankingSystem.Account("A", "Checking Account", "alice", 100));
+        accounts.addAccount(new OnlineBankingSystem.Account("SHOP", "Checking Account", "shop", 0));
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("SHOP", 0);
+    }
+
+    private OnlineBankingSystem.Account account(String accountNumber) {
+        return accounts.getAccountByNumber(accountNumber);
+    }
+
+    @Test
+    void authorizationHoldsFundsUntilReleased() {
+        OnlineBankingSystem.Hold hold = holds.authorize("A", "SHOP", 60, "Hotel", LONG_HOLD);
+        assertNotNull(hold);
+        assertEquals(100, account("A").getBalance(), 1e-9);
+        assertEquals(40, account("A").getAvailableBalance(), 1e-9);
+
+        // Only the available balance can be held again
+        assertNull(holds.authorize("A", "SHOP", 50, "Car hire", LONG_HOLD));
+        assertNull(holds.authorize("A", "MISSING", 10, "Unknown", LONG_HOLD));
+        assertNull(holds.authorize("A", "A", 10, "Self", LONG_HOLD));
+
+        assertTrue(holds.release(hold.getId()));
+        assertEquals(OnlineBankingSystem.HoldStatus.RELEASED, hold.getStatus());
+        assertEquals(100, account("A").getAvailableBalance(), 1e-9);
+        assertFalse(holds.release(hold.getId()));
+        assertFalse(holds.capture(hold.getId(), 10));
+        assertEquals(0, holds.getOutstandingCount());
+    }
+
+    @Test
+    void partialCaptureSettlesTheCapturedAmountAndReleasesTheRest() {
+        OnlineBankingSystem.Hold hold = holds.authorize("A", "SHOP", 60, "Hotel", LONG_HOLD);
+
+        assertTrue(holds.capture(hold.getId(), 45));
+        assertFalse(holds.release(hold.getId()));
+        assertEquals(1, holds.getPendingSettlementCount());
+        // Nothing moves until settlement
+        assertEquals(100, account("A").getBalance(), 1e-9);
+        assertEquals(1, holds.settle(10));
+
+        assertEquals(OnlineBankingSystem.HoldStatus.CAPTURED, hold.getStatus());
+        assertEquals(55, account("A").getBalance(), 1e-9);
+        assertEquals(55, account("A").getAvailableBalance(), 1e-9);
+        assertEquals(45, account("SHOP").getBalance(), 1e-9);
+        assertEquals(55, transactions.getLedgerBalance("A"), 1e-9);
+        assertEquals(1, transactions.getTransactionsByAccountNumber("SHOP").size());
+        assertEquals("HLD-" + hold.getId(), transactions.getTransactionsByAccountNumber("SHOP").get(0).getTransactionId());
+        assertNull(holds.getHold(hold.getId()));
+    }
+
+    @Test
+    void captureOverTheAuthorizedAmountIsRefused() {
+        OnlineBankingSystem.Hold hold = holds.authorize("A", "SHOP", 60, "Hotel", LONG_HOLD);
+
+        assertFalse(holds.capture(hold.getId(), 60.01));
+        assertFalse(holds.capture(hold.getId(), 0));
+        assertEquals(OnlineBankingSystem.HoldStatus.AUTHORIZED, hold.getStatus());
+    }
+
+    @Test
+    void expiredHoldsGiveTheFundsBack() throws InterruptedException {
+        OnlineBankingSystem.Hold hold = holds.authorize("A", "SHOP", 60, "Hotel", 50);
+        assertEquals(40, account("A").getAvailableBalance(), 1e-9);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (hold.getStatus() == OnlineBankingSystem.HoldStatus.AUTHORIZED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(OnlineBankingSystem.HoldStatus.EXPIRED, hold.getStatus());
+        assertEquals(100, account("A").getAvailableBalance(), 1e-9);
+        assertFalse(holds.capture(hold.getId(), 10));
+        assertEquals(0, holds.getOutstandingCount());
+    }
+
+    @Test
+    void captureRacingReleaseHasOneWinner() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            OnlineBankingSystem.Hold hold = holds.authorize("A", "SHOP", 1, "Coffee", LONG_HOLD);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger winners = new AtomicInteger();
+            Thread capture = new Thread(() -> {
+                awaitQuietly(start);
+                if (holds.capture(hold.getId(), 1)) {
+                    winners.incrementAndGet();
+                }
+            });
+            Thread release = new Thread(() -> {
+                awaitQuietly(start);
+                if (holds.release(hold.getId())) {
+                    winners.incrementAndGet();
+                }
+            });
+            capture.start();
+            release.start();
+            start.countDown();
+            capture.join();
+            release.join();
+            assertEquals(1, winners.get());
+            holds.settle(10);
+        }
+
+        // Every hold was either settled or released, so the account is whole again
+        assertEquals(account("A").getBalance(), account("A").getAvailableBalance(), 1e-9);
+        assertEquals(100, account("A").getBalance() + account("SHOP").getBalance(), 1e-9);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
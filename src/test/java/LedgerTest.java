@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LedgerTest {
+    private static final long T0 = 1_700_000_000_000L;
+
+    private static OnlineBankingSystem.Transaction transfer(String id, String from, String to, double amount, long time) {
+        return new OnlineBankingSystem.Transaction(id, from, to, amount, "Fund Transfer", new Date(time));
+    }
+
+    @Test
+    void postingsCarryRunningBalances() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("B", 50);
+        transactions.addTransaction(transfer("T1", "A", "B", 30, T0));
+        transactions.addTransaction(transfer("T2", "B", "A", 20, T0 + 1000));
+
+        List<OnlineBankingSystem.Posting> postings = transactions.getPostings("A");
+        assertEquals(2, postings.size());
+        assertEquals(-30, postings.get(0).getAmount(), 1e-9);
+        assertEquals(70, postings.get(0).getBalanceAfter(), 1e-9);
+        assertEquals(20, postings.get(1).getAmount(), 1e-9);
+        assertEquals(90, postings.get(1).getBalanceAfter(), 1e-9);
+        assertEquals(90, transactions.getLedgerBalance("A"), 1e-9);
+        assertEquals(60, transactions.getLedgerBalance("B"), 1e-9);
+    }
+
+    @Test
+    void backDatedPostingIsInsertedInPlaceAndLaterBalancesMove() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("B", 0);
+        transactions.addTransaction(transfer("T1", "A", "B", 10, T0));
+        transactions.addTransaction(transfer("T2", "A", "B", 10, T0 + 2000));
+        transactions.addTransaction(transfer("LATE", "A", "B", 5, T0 + 1000));
+
+        List<OnlineBankingSystem.Posting> postings = transactions.getPostings("A");
+        assertEquals(Arrays.asList("T1", "LATE", "T2"), Arrays.asList(
+                postings.get(0).getTransaction().getTransactionId(),
+                postings.get(1).getTransaction().getTransactionId(),
+                postings.get(2).getTransaction().getTransactionId()));
+        assertEquals(90, postings.get(0).getBalanceAfter(), 1e-9);
+        assertEquals(85, postings.get(1).getBalanceAfter(), 1e-9);
+        assertEquals(75, postings.get(2).getBalanceAfter(), 1e-9);
+    }
+
+    @Test
+    void crossCurrencyTransferCreditsTheConvertedAmount() {
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        transactions.openLedgerAccount("USD-1", 100);
+        transactions.openLedgerAccount("EUR-1", 0);
+        transactions.addTransaction(new OnlineBankingSystem.Transaction("T1", "USD-1", "EUR-1", 10.80, "USD", 10.00,
+                "Fund Transfer", new Date(T0)));
+
+        assertEquals(89.20, transactions.getLedgerBalance("USD-1"), 1e-9);
+        assertEquals(10.00, transactions.getLedgerBalance("EUR-1"), 1e-9);
+    }
+
+    @Test
+    void importedLedgersCloseAtTheImportedBalanceInEitherOrder(@TempDir Path directory) throws Exception {
+        Path accounts = directory.resolve("accounts.csv");
+        Path history = directory.resolve("transactions.csv");
+        Files.write(accounts, Arrays.asList(
+                "accountNumber,accountName,ownerUsername,balance,currency",
+                "A,Checking Account,alice,70.00,USD",
+                "B,Checking Account,bob,30.00,USD"), StandardCharsets.UTF_8);
+        Files.write(history, Arrays.asList(
+                "transactionId,fromAccount,toAccount,amount,description,timestamp,currency,creditAmount",
+                "T1,A,B,20.00,Fund Transfer," + T0 + ",USD,20.00",
+                "T2,A,B,10.00,Fund Transfer," + (T0 + 1000) + ",USD,10.00"), StandardCharsets.UTF_8);
+
+        for (boolean accountsFirst : new boolean[] {true, false}) {
+            OnlineBankingSystem.AccountManager accountManager = new OnlineBankingSystem.AccountManager();
+            OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+            OnlineBankingSystem.DataPorter porter = new OnlineBankingSystem.DataPorter(
+                    new OnlineBankingSystem.UserManager(), accountManager, transactions);
+            if (accountsFirst) {
+                porter.importAccounts(accounts);
+                porter.importTransactions(history);
+            } else {
+                porter.importTransactions(history);
+                porter.importAccounts(accounts);
+            }
+
+            assertEquals(100, transactions.getOpeningBalance("A"), 1e-9);
+            assertEquals(70, transactions.getLedgerBalance("A"), 1e-9);
+            assertEquals(0, transactions.getOpeningBalance("B"), 1e-9);
+            assertEquals(30, transactions.getLedgerBalance("B"), 1e-9);
+            assertTrue(new OnlineBankingSystem.ReconciliationJob(accountManager, transactions).run().getDiscrepancies().isEmpty());
+        }
+    }
+
+    @Test
+    void importedHistoryForLiveAccountsIsLeftForReconciliation(@TempDir Path directory) throws Exception {
+        OnlineBankingSystem.AccountManager accountManager = new OnlineBankingSystem.AccountManager();
+        OnlineBankingSystem.TransactionManager transactions = new OnlineBankingSystem.TransactionManager();
+        accountManager.addAccount(new OnlineBankingSystem.Account("A", "Checking Account", "alice", 100));
+        accountManager.addAccount(new OnlineBankingSystem.Account("B", "Checking Account", "bob", 100));
+        transactions.openLedgerAccount("A", 100);
+        transactions.openLedgerAccount("B", 100);
+        Path history = directory.resolve("transactions.csv");
+        Files.write(history, Arrays.asList(
+                "transactionId,fromAccount,toAccount,amount,description,timestamp,currency,creditAmount",
+                "T1,A,B,25.00,Fund Transfer," + T0 + ",USD,25.00"), StandardCharsets.UTF_8);
+
+        new OnlineBankingSystem.DataPorter(new OnlineBankingSystem.UserManager(), accountManager, transactions)
+                .importTransactions(history);
+
+        assertEquals(100, transactions.getOpeningBalance("A"), 1e-9);
+        assertEquals(75, transactions.getLedgerBalance("A"), 1e-9);
+        assertEquals(2, new OnlineBankingSystem.ReconciliationJob(accountManager, transactions).run().getDiscrepancies().size());
+    }
+}
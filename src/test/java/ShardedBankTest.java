@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ShardedBankTest {
+    private static final int SHARDS = 4;
+
+    /** Returns account numbers that live on two different shards. */
+    private static String[] onDifferentShards(OnlineBankingSystem.ShardedBank bank) {
+        String first = "ACC-0";
+        for (int i = 1; ; i++) {
+            String candidate = "ACC-" + i;
+            if (bank.shardFor(candidate) != bank.shardFor(first)) {
+                return new String[] {first, candidate};
+            }
+        }
+    }
+
+    /** Returns an account number on the same shard as accountNumber. */
+    private static String onSameShard(OnlineBankingSystem.ShardedBank bank, String accountNumber) {
+        for (int i = 1; ; i++) {
+            String candidate = accountNumber + "-" + i;
+            if (bank.shardFor(candidate) == bank.shardFor(accountNumber)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static OnlineBankingSystem.Account account(String number, double balance, String currency) {
+        return new OnlineBankingSystem.Account(number, "Checking Account", "owner", balance, currency);
+    }
+
+    private static double balance(OnlineBankingSystem.ShardedBank bank, String accountNumber) {
+        return bank.getAccountByNumber(accountNumber).getBalance();
+    }
+
+    @Test
+    void crossShardTransferRecordsEachLegOnItsOwnShard() {
+        OnlineBankingSystem.ShardedBank bank = new OnlineBankingSystem.ShardedBank(SHARDS);
+        String[] numbers = onDifferentShards(bank);
+        bank.addAccounts(Arrays.asList(account(numbers[0], 100, "USD"), account(numbers[1], 20, "USD")));
+
+        assertEquals(30, bank.transfer(numbers[0], numbers[1], 30), 1e-9);
+
+        assertEquals(70, balance(bank, numbers[0]), 1e-9);
+        assertEquals(50, balance(bank, numbers[1]), 1e-9);
+        assertEquals(1, bank.getTransactionsByAccountNumber(numbers[0]).size());
+        assertEquals(1, bank.getTransactionsByAccountNumber(numbers[1]).size());
+        assertEquals(bank.getTransactionsByAccountNumber(numbers[0]).get(0).getTransactionId(),
+                bank.getTransactionsByAccountNumber(numbers[1]).get(0).getTransactionId());
+        // The transaction is counted once, on the source shard
+        assertEquals(1, bank.getTransactionCount());
+        assertEquals(70, bank.shardFor(numbers[0]).getTransactionManager().getLedgerBalance(numbers[0]), 1e-9);
+        assertEquals(50, bank.shardFor(numbers[1]).getTransactionManager().getLedgerBalance(numbers[1]), 1e-9);
+    }
+
+    @Test
+    void crossShardTransferConvertsWithTheSharedRateTable() {
+        OnlineBankingSystem.ShardedBank bank = new OnlineBankingSystem.ShardedBank(SHARDS);
+        String[] numbers = onDifferentShards(bank);
+        bank.addAccounts(Arrays.asList(account(numbers[0], 100, "EUR"), account(numbers[1], 0, "USD")));
+
+        double credited = bank.transfer(numbers[0], numbers[1], 10);
+
+        assertEquals(10.80, credited, 1e-9);
+        assertEquals(90, balance(bank, numbers[0]), 1e-9);
+        assertEquals(10.80, balance(bank, numbers[1]), 1e-9);
+    }
+
+    @Test
+    void refusedTransfersLeaveBothSidesUntouched() {
+        OnlineBankingSystem.ShardedBank bank = new OnlineBankingSystem.ShardedBank(SHARDS);
+        String[] numbers = onDifferentShards(bank);
+        String noRate = onSameShard(bank, numbers[1]);
+        bank.addAccounts(Arrays.asList(account(numbers[0], 100, "USD"), account(numbers[1], 0, "USD"),
+                account(noRate, 0, "JPY")));
+
+        // Insufficient funds, an unknown destination and a currency without a rate
+        assertEquals(-1, bank.transfer(numbers[0], numbers[1], 100.01), 1e-9);
+        assertFalse(bank.transferFunds(numbers[0], "MISSING", 10));
+        assertFalse(bank.transferFunds(numbers[0], noRate, 10));
+
+        assertEquals(100, balance(bank, numbers[0]), 1e-9);
+        assertEquals(0, balance(bank, numbers[1]), 1e-9);
+        assertEquals(0, balance(bank, noRate), 1e-9);
+        assertEquals(0, bank.shardFor(numbers[0]).getReservedTotal(), 1e-9);
+        assertEquals(0, bank.getTransactionCount());
+    }
+
+    @Test
+    void sameShardTransferStaysOnItsShard() {
+        OnlineBankingSystem.ShardedBank bank = new OnlineBankingSystem.ShardedBank(SHARDS);
+        String from = "ACC-0";
+        String to = onSameShard(bank, from);
+        bank.addAccounts(Arrays.asList(account(from, 100, "USD"), account(to, 0, "USD")));
+
+        assertTrue(bank.transferFunds(from, to, 25));
+
+        assertEquals(75, balance(bank, from), 1e-9);
+        assertEquals(25, balance(bank, to), 1e-9);
+        assertEquals(1, bank.shardFor(from).getTransactionManager().getTransactionCount());
+    }
+
+    @Test
+    void concurrentTransfersConserveMoney() throws InterruptedException {
+        OnlineBankingSystem.ShardedBank bank = new OnlineBankingSystem.ShardedBank(SHARDS);
+        List<OnlineBankingSystem.Account> accounts = new ArrayList<>();
+        int accountCount = 40;
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(account("ACC-" + i, 1_000, "USD"));
+        }
+        bank.addAccounts(accounts);
+
+        Thread[] workers = new Thread[8];
+        for (int t = 0; t < workers.length; t++) {
+            Random random = new Random(t);
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    bank.transfer("ACC-" + random.nextInt(accountCount), "ACC-" + random.nextInt(accountCount),
+                            1 + random.nextInt(50_000) / 100.0);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double total = 0;
+        for (int i = 0; i < accountCount; i++) {
+            double balance = balance(bank, "ACC-" + i);
+            assertTrue(balance >= 0);
+            assertEquals(balance, bank.shardFor("ACC-" + i).getTransactionManager().getLedgerBalance("ACC-" + i), 1e-6);
+            assertEquals(0, bank.shardFor("ACC-" + i).getReservedTotal(), 1e-9);
+            total += balance;
+        }
+        assertEquals(accountCount * 1_000, total, 1e-6);
+    }
+}
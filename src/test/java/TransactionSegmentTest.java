@@ -0,0 +1,205 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TransactionSegmentTest {
+    private static final long T0 = 1_700_000_000_000L;
+    private static final String[] DESCRIPTIONS = {"Rent payment", "Payment for dinner", "Groceries", "Paycheck", "Rent, March"};
+
+    /** Sorted by date over several months, with runs of equal dates. */
+    private static List<OnlineBankingSystem.Transaction> history(int count) {
+        Random random = new Random(3);
+        List<OnlineBankingSystem.Transaction> transactions = new ArrayList<>();
+        long time = T0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0) {
+                time += random.nextInt(20 * 24 * 60 * 60 * 1000);
+            }
+            time += random.nextInt(3) == 0 ? 0 : random.nextInt(24 * 60 * 60 * 1000);
+            String from = "ACC-" + random.nextInt(6);
+            String to = "ACC-" + (from.charAt(4) - '0' + 1 + random.nextInt(5)) % 6;
+            // Mix amounts stored as cents with ones that are not, and credits that differ
+            double amount = i % 7 == 0 ? 1 / 3.0 : random.nextInt(100_000) / 100.0;
+            double creditAmount;
+            String currency;
+            if (i % 5 == 0) {
+                currency = "EUR";
+                creditAmount = i % 10 == 0 ? amount * 1.08 : Math.round(amount * 108) / 100.0;
+            } else {
+                currency = "USD";
+                creditAmount = amount;
+            }
+            transactions.add(new OnlineBankingSystem.Transaction("T" + i, from, to, amount, currency, creditAmount,
+                    DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)], new Date(time)));
+        }
+        return transactions;
+    }
+
+    private static List<OnlineBankingSystem.Transaction> readAll(OnlineBankingSystem.TransactionSegment segment) {
+        List<OnlineBankingSystem.Transaction> result = new ArrayList<>();
+        segment.forEach(result::add);
+        return result;
+    }
+
+    private static void assertSame(OnlineBankingSystem.Transaction expected, OnlineBankingSystem.Transaction actual) {
+        assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        assertEquals(expected.getFromAccount(), actual.getFromAccount());
+        assertEquals(expected.getToAccount(), actual.getToAccount());
+        assertEquals(expected.getAmount(), actual.getAmount(), 0);
+        assertEquals(expected.getCurrency(), actual.getCurrency());
+        assertEquals(expected.getCreditAmount(), actual.getCreditAmount(), 0);
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getDate(), actual.getDate());
+    }
+
+    @Test
+    void everyFieldSurvivesARoundTrip(@TempDir Path directory) throws Exception {
+        List<OnlineBankingSystem.Transaction> transactions = history(500);
+        OnlineBankingSystem.TransactionSegment.write(directory.resolve("segment.seg"), transactions);
+        OnlineBankingSystem.TransactionSegment segment = OnlineBankingSystem.TransactionSegment.open(directory.resolve("segment.seg"));
+
+        assertEquals(transactions.size(), segment.getRecordCount());
+        assertEquals(transactions.get(0).getDate().getTime(), segment.getMinTime());
+        assertEquals(transactions.get(transactions.size() - 1).getDate().getTime(), segment.getMaxTime());
+        List<OnlineBankingSystem.Transaction> read = readAll(segment);
+        assertEquals(transactions.size(), read.size());
+        for (int i = 0; i < transactions.size(); i++) {
+            assertSame(transactions.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    void rangeScansAreHalfOpenAndFindEqualDatesAcrossBlocks(@TempDir Path directory) throws Exception {
+        List<OnlineBankingSystem.Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Forty records share one date, so that date spans several blocks
+            long time = i < 30 ? T0 + i : i < 70 ? T0 + 1_000 : T0 + 1_000 + i;
+            transactions.add(new OnlineBankingSystem.Transaction("T" + i, "A", "B", 1, "x", new Date(time)));
+        }
+        OnlineBankingSystem.TransactionSegment segment = OnlineBankingSystem.TransactionSegment.write(directory.resolve("segment.seg"), transactions);
+
+        Random random = new Random(5);
+        for (int probe = 0; probe < 500; probe++) {
+            long from = T0 - 5 + random.nextInt(1_200);
+            long to = from + random.nextInt(1_200);
+            if (probe % 10 == 0) {
+                from = T0 + 1_000;
+            }
+            List<String> expected = new ArrayList<>();
+            for (OnlineBankingSystem.Transaction transaction : transactions) {
+                long time = transaction.getDate().getTime();
+                if (time >= from && time < to) {
+                    expected.add(transaction.getTransactionId());
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            segment.forRange(from, to, transaction -> actual.add(transaction.getTransactionId()));
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void accountIndexListsEachAccountsTransactionsAndNet(@TempDir Path directory) throws Exception {
+        List<OnlineBankingSystem.Transaction> transactions = history(300);
+        OnlineBankingSystem.TransactionSegment segment = OnlineBankingSystem.TransactionSegment.write(directory.resolve("segment.seg"), transactions);
+
+        Map<String, Double> net = new HashMap<>();
+        for (int a = 0; a < 6; a++) {
+            String account = "ACC-" + a;
+            List<String> expected = new ArrayList<>();
+            for (OnlineBankingSystem.Transaction transaction : transactions) {
+                if (account.equals(transaction.getFromAccount()) || account.equals(transaction.getToAccount())) {
+                    expected.add(transaction.getTransactionId());
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            for (OnlineBankingSystem.Transaction transaction : segment.forAccount(account)) {
+                actual.add(transaction.getTransactionId());
+            }
+            assertEquals(expected, actual);
+            net.put(account, 0.0);
+        }
+        assertEquals(0, segment.forAccount("MISSING").size());
+
+        for (OnlineBankingSystem.Transaction transaction : transactions) {
+            net.merge(transaction.getFromAccount(), -transaction.getAmount(), Double::sum);
+            net.merge(transaction.getToAccount(), transaction.getCreditAmount(), Double::sum);
+        }
+        Map<String, Double> stored = new HashMap<>();
+        segment.forEachAccountNet(stored::put);
+        assertEquals(net.keySet(), stored.keySet());
+        for (String account : net.keySet()) {
+            assertEquals(net.get(account), stored.get(account), 1e-6);
+        }
+    }
+
+    @Test
+    void termIndexAgreesWithTheInMemoryIndex(@TempDir Path directory) throws Exception {
+        List<OnlineBankingSystem.Transaction> transactions = history(300);
+        OnlineBankingSystem.TransactionSegment segment = OnlineBankingSystem.TransactionSegment.write(directory.resolve("segment.seg"), transactions);
+        OnlineBankingSystem.DescriptionIndex index = new OnlineBankingSystem.DescriptionIndex();
+        for (int i = 0; i < transactions.size(); i++) {
+            index.add(i, transactions.get(i).getDescription());
+        }
+
+        for (String query : new String[] {"rent", "PAYMENT", "pay*", "rent payment", "march rent", "p*", "zzz", "zzz*", "!!"}) {
+            assertArrayEquals(index.search(query), segment.searchText(query), query);
+        }
+        assertNull(segment.searchText(" "));
+    }
+
+    @Test
+    void reopenedSegmentsRestoreBalancesAndStatements(@TempDir Path directory) throws Exception {
+        List<OnlineBankingSystem.Transaction> transactions = history(400);
+        OnlineBankingSystem.TransactionManager original = new OnlineBankingSystem.TransactionManager();
+        for (int a = 0; a < 6; a++) {
+            original.openLedgerAccount("ACC-" + a, 10_000);
+        }
+        for (OnlineBankingSystem.Transaction transaction : transactions) {
+            original.addTransaction(transaction);
+        }
+        long cutoff = transactions.get(250).getDate().getTime();
+        assertEquals(250, original.archiveOlderThan(directory, new Date(cutoff)));
+
+        // A restart reloads the history that was not archived and restores the balances
+        OnlineBankingSystem.TransactionManager reopened = new OnlineBankingSystem.TransactionManager(directory);
+        for (OnlineBankingSystem.Transaction transaction : transactions) {
+            if (transaction.getDate().getTime() >= cutoff) {
+                reopened.addTransaction(transaction);
+            }
+        }
+        for (int a = 0; a < 6; a++) {
+            reopened.alignLedgerAccount("ACC-" + a, original.getLedgerBalance("ACC-" + a));
+        }
+
+        int first = OnlineBankingSystem.MonthlyStatement.monthOf(transactions.get(0).getDate().getTime());
+        int last = OnlineBankingSystem.MonthlyStatement.monthOf(transactions.get(transactions.size() - 1).getDate().getTime());
+        assertTrue(last - first > 3);
+        for (int a = 0; a < 6; a++) {
+            String account = "ACC-" + a;
+            assertEquals(original.getTransactionsByAccountNumber(account).size(), reopened.getTransactionsByAccountNumber(account).size());
+            for (int month = first; month <= last; month++) {
+                OnlineBankingSystem.MonthlyStatement expected = original.getMonthlyStatement(account, month);
+                OnlineBankingSystem.MonthlyStatement actual = reopened.getMonthlyStatement(account, month);
+                assertEquals(expected.getOpeningBalance(), actual.getOpeningBalance(), 1e-6);
+                assertEquals(expected.getClosingBalance(), actual.getClosingBalance(), 1e-6);
+                assertEquals(expected.getTotalIn(), actual.getTotalIn(), 1e-6);
+                assertEquals(expected.getTotalOut(), actual.getTotalOut(), 1e-6);
+                assertEquals(expected.getCountIn(), actual.getCountIn());
+                assertEquals(expected.getCountOut(), actual.getCountOut());
+            }
+        }
+    }
+}
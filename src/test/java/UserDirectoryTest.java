@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class UserDirectoryTest {
+    private OnlineBankingSystem.UserDirectory directory;
+
+    private static OnlineBankingSystem.User user(String username, String firstName, String lastName, String email) {
+        return new OnlineBankingSystem.User(username, "password", firstName, lastName, email, OnlineBankingSystem.UserRole.CUSTOMER);
+    }
+
+    @BeforeEach
+    void setUp() {
+        directory = new OnlineBankingSystem.UserDirectory();
+        directory.add(user("jsmith", "John", "Smith", "john.smith@example.com"));
+        directory.add(user("mvb", "Mary Ann", "Van Der Berg", "mary@bank.example.org"));
+        directory.add(user("jsmythe", "Jane", "Smythe", "jane@example.com"));
+    }
+
+    private List<String> search(String query, boolean fuzzy) {
+        List<String> usernames = new ArrayList<>();
+        for (OnlineBankingSystem.User user : directory.search(query, fuzzy, 0, 10).getUsers()) {
+            usernames.add(user.getUsername());
+        }
+        return usernames;
+    }
+
+    @Test
+    void everyWordMatchesAFieldByPrefix() {
+        assertEquals(listOf("jsmith", "jsmythe"), search("sm", false));
+        assertEquals(listOf("jsmith"), search("JOHN smi", false));
+        assertEquals(listOf(), search("john smythe", false));
+    }
+
+    @Test
+    void wordsInsideNamesAndEmailsAreIndexed() {
+        assertEquals(listOf("mvb"), search("berg", false));
+        assertEquals(listOf("mvb"), search("ann", false));
+        assertEquals(listOf("mvb"), search("bank", false));
+        assertEquals(listOf("mvb"), search("example.org", false));
+        assertEquals(listOf("jsmith", "jsmythe"), search("example.com", false));
+        assertEquals(listOf("jsmith"), search("john.smith@", false));
+    }
+
+    @Test
+    void fuzzySearchAllowsSubstitutionsInsertionsDeletionsAndTranspositions() {
+        // Words of up to four letters allow one edit, longer words two
+        assertEquals(listOf(), search("jhon", false));
+        assertEquals(listOf("jsmith"), search("jhon", true));
+        assertEquals(listOf("mvb"), search("mray", true));
+        assertEquals(listOf("jsmith", "jsmythe"), search("smtih", true));
+        assertEquals(listOf("mvb"), search("berrg", true));
+        assertEquals(listOf("mvb"), search("brg", true));
+        assertEquals(listOf(), search("zzzzzz", true));
+    }
+
+    @Test
+    void removedAndRenamedUsersAreReindexed() {
+        OnlineBankingSystem.User jane = user("jsmythe", "Jane", "Smythe", "jane@example.com");
+        directory.remove(jane);
+        assertEquals(listOf("jsmith"), search("sm", false));
+
+        jane.setLastName("Doe");
+        directory.add(jane);
+        assertEquals(listOf("jsmythe"), search("doe", false));
+        assertEquals(listOf("jsmith"), search("sm", false));
+    }
+
+    @Test
+    void pagesFollowRegistrationOrderAndReportTheTotal() {
+        for (int i = 0; i < 25; i++) {
+            directory.add(user("page" + i, "Page", "User" + i, "page" + i + "@example.net"));
+        }
+        OnlineBankingSystem.UserDirectory.Page page = directory.search("page", false, 1, 10);
+        assertEquals(25, page.getTotalMatches());
+        assertEquals(10, page.getUsers().size());
+        assertEquals("page10", page.getUsers().get(0).getUsername());
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}